@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import io.reactivex.rxjava3.annotations.Nullable;
+import io.reactivex.rxjava3.core.Observer;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.functions.Action;
+import io.reactivex.rxjava3.functions.Function;
+import io.reactivex.rxjava3.functions.Predicate;
+import java.util.Arrays;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Skips invoking the combiner and emitting its result when the first inputs of a connection are
+ * identical to the last ones of the previous connection, such as when the sources replay their
+ * cached values after reconnecting. Created per upstream connection.
+ */
+final class CombineMemo<R>
+    implements Function<Object[], R>, Predicate<R>, Observer<R>, Subscriber<R>, Action {
+  private final Function<? super Object[], ? extends R> combiner;
+  private final CombineStore<R> store;
+  private final long generation;
+  private @Nullable Object[] previous;
+  /** The inputs followed by the result of the last combination. */
+  private volatile @Nullable Object[] combination;
+  private boolean duplicate;
+
+  CombineMemo(Function<? super Object[], ? extends R> combiner, CombineStore<R> store,
+      CombineStore.Entry seed) {
+    this.combiner = combiner;
+    this.store = store;
+    this.generation = seed.generation;
+    this.previous = seed.combination;
+    this.combination = seed.combination;
+  }
+
+  @Override public R apply(Object[] inputs) throws Throwable {
+    Object[] previous = this.previous;
+    if (previous != null) {
+      this.previous = null;
+      if (identical(previous, inputs)) {
+        duplicate = true;
+        @SuppressWarnings("unchecked") // The result is stored after the inputs.
+        R result = (R) previous[inputs.length];
+        return result;
+      }
+    }
+    duplicate = false;
+    R result = combiner.apply(inputs);
+    Object[] combination = Arrays.copyOf(inputs, inputs.length + 1);
+    combination[inputs.length] = result;
+    this.combination = combination;
+    return result;
+  }
+
+  @Override public boolean test(R result) {
+    return !duplicate;
+  }
+
+  @Override public void onError(Throwable e) {
+    combination = null;
+    store.update(generation, null);
+  }
+
+  @Override public void onComplete() {
+    combination = null;
+    store.update(generation, null);
+  }
+
+  /** Called when this connection is disposed. */
+  @Override public void run() {
+    store.update(generation, combination);
+  }
+
+  @Override public void onNext(R result) {}
+  @Override public void onSubscribe(Subscription ignored) {}
+  @Override public void onSubscribe(Disposable ignored) {}
+
+  private static boolean identical(Object[] combination, Object[] inputs) {
+    if (combination.length != inputs.length + 1) return false;
+    for (int i = 0; i < inputs.length; i++) {
+      if (combination[i] != inputs[i]) return false;
+    }
+    return true;
+  }
+}
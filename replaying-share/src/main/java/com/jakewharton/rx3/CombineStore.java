@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import io.reactivex.rxjava3.annotations.Nullable;
+import io.reactivex.rxjava3.functions.Function;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * The inputs and result of the last combination of the connection which most recently
+ * disconnected. Each connection gets its own {@link CombineMemo} seeded from the store, and only
+ * the newest connection may write back to it.
+ */
+final class CombineStore<R> {
+  @SuppressWarnings("rawtypes") // Updaters cannot be created for generic types.
+  private static final AtomicReferenceFieldUpdater<CombineStore, Entry> CURRENT =
+      AtomicReferenceFieldUpdater.newUpdater(CombineStore.class, Entry.class, "current");
+
+  private final Function<? super Object[], ? extends R> combiner;
+  private volatile Entry current = new Entry(0, null);
+
+  CombineStore(Function<? super Object[], ? extends R> combiner) {
+    this.combiner = combiner;
+  }
+
+  CombineMemo<R> connect() {
+    while (true) {
+      Entry current = this.current;
+      Entry next = new Entry(current.generation + 1, current.combination);
+      if (CURRENT.compareAndSet(this, current, next)) {
+        return new CombineMemo<>(combiner, this, next);
+      }
+    }
+  }
+
+  void update(long generation, @Nullable Object[] combination) {
+    while (true) {
+      Entry current = this.current;
+      if (current.generation != generation) {
+        return; // A newer connection owns the store.
+      }
+      if (CURRENT.compareAndSet(this, current, new Entry(generation, combination))) {
+        return;
+      }
+    }
+  }
+
+  static final class Entry {
+    final long generation;
+    /** The inputs followed by the result, or null if nothing was combined. */
+    final @Nullable Object[] combination;
+
+    Entry(long generation, @Nullable Object[] combination) {
+      this.generation = generation;
+      this.combination = combination;
+    }
+  }
+}
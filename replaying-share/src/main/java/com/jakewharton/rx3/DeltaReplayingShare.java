@@ -0,0 +1,356 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import com.jakewharton.rx3.ReplayingShare.Connection;
+import com.jakewharton.rx3.ReplayingShare.LastSeen;
+import com.jakewharton.rx3.ReplayingShare.LastSeenFlowable;
+import com.jakewharton.rx3.ReplayingShare.LastSeenObservable;
+import io.reactivex.rxjava3.annotations.NonNull;
+import io.reactivex.rxjava3.annotations.Nullable;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.FlowableTransformer;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.ObservableTransformer;
+import io.reactivex.rxjava3.core.Observer;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.functions.Action;
+import io.reactivex.rxjava3.functions.Function;
+import io.reactivex.rxjava3.functions.Supplier;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * A variant of {@link ReplayingShare} for large, slowly-changing values such as collection
+ * snapshots.
+ * <p>
+ * The latest full value is cached and replayed to new subscribers as a {@linkplain Delta#isFull()
+ * full} delta. Subscribers which are already connected instead receive only the difference between
+ * the previous and the new value as computed by a {@link Differ}.
+ * <p>
+ * Every delta carries a {@linkplain Delta#version() version}. A diff is only delivered to a
+ * subscriber whose previous delta had the preceding version. A subscriber which missed a diff, for
+ * example because it subscribed while a value was being emitted, instead receives the full value.
+ */
+public final class DeltaReplayingShare<T, D>
+    implements ObservableTransformer<T, DeltaReplayingShare.Delta<T, D>>,
+    FlowableTransformer<T, DeltaReplayingShare.Delta<T, D>> {
+  /** Computes the change between two successive upstream values. */
+  public interface Differ<T, D> {
+    @NonNull D diff(@NonNull T previous, @NonNull T next) throws Throwable;
+  }
+
+  /**
+   * Creates a `DeltaReplayingShare` transformer which uses {@code differ} to compute the changes
+   * delivered to connected subscribers.
+   */
+  @NonNull
+  public static <T, D> DeltaReplayingShare<T, D> create(@NonNull Differ<T, D> differ) {
+    if (differ == null) throw new NullPointerException("differ == null");
+    return new DeltaReplayingShare<>(differ, null);
+  }
+
+  /**
+   * Creates a `DeltaReplayingShare` transformer with a default value which will be emitted
+   * downstream as a full delta on subscription if there is not any cached value yet.
+   *
+   * @param defaultValue the initial value delivered to new subscribers before any events are
+   * cached. The first upstream value is diffed against it.
+   */
+  @NonNull
+  public static <T, D> DeltaReplayingShare<T, D> createWithDefault(@NonNull Differ<T, D> differ,
+      @NonNull T defaultValue) {
+    if (differ == null) throw new NullPointerException("differ == null");
+    if (defaultValue == null) throw new NullPointerException("defaultValue == null");
+    return new DeltaReplayingShare<>(differ, defaultValue);
+  }
+
+  private final Differ<T, D> differ;
+  private final @Nullable T defaultValue;
+
+  private DeltaReplayingShare(Differ<T, D> differ, @Nullable T defaultValue) {
+    this.differ = differ;
+    this.defaultValue = defaultValue;
+  }
+
+  @Override public Observable<Delta<T, D>> apply(Observable<T> upstream) {
+    LastSeen<Delta<T, D>> lastSeen = newLastSeen();
+    Observable<Delta<T, D>> deltas =
+        Observable.defer(new ObservableConnector<>(upstream, lastSeen, differ));
+    return new DeltaObservable<>(new LastSeenObservable<>(deltas.share(), lastSeen));
+  }
+
+  @Override public Flowable<Delta<T, D>> apply(Flowable<T> upstream) {
+    LastSeen<Delta<T, D>> lastSeen = newLastSeen();
+    Flowable<Delta<T, D>> deltas =
+        Flowable.defer(new FlowableConnector<>(upstream, lastSeen, differ));
+    return new DeltaFlowable<>(new LastSeenFlowable<>(deltas.share(), lastSeen));
+  }
+
+  private LastSeen<Delta<T, D>> newLastSeen() {
+    T defaultValue = this.defaultValue;
+    return new LastSeen<>(defaultValue != null ? Delta.<T, D>full(defaultValue, 0) : null);
+  }
+
+  /**
+   * Either the full value (when replaying the cache or when nothing was cached yet) or the
+   * difference from the previously delivered value.
+   */
+  public static final class Delta<T, D> {
+    static <T, D> Delta<T, D> full(T state, long version) {
+      return new Delta<>(true, state, null, version);
+    }
+
+    static <T, D> Delta<T, D> diff(T state, D diff, long version) {
+      return new Delta<>(false, state, diff, version);
+    }
+
+    private final boolean full;
+    /** The full value after this delta, retained by diffs so that subscribers can re-sync. */
+    final T fullState;
+    private final @Nullable D diff;
+    private final long version;
+
+    private Delta(boolean full, T fullState, @Nullable D diff, long version) {
+      this.full = full;
+      this.fullState = fullState;
+      this.diff = diff;
+      this.version = version;
+    }
+
+    /** True when this delta carries the full {@link #state()} instead of a {@link #diff()}. */
+    public boolean isFull() {
+      return full;
+    }
+
+    /** The full value, or null if this is a diff. */
+    @Nullable public T state() {
+      return full ? fullState : null;
+    }
+
+    /** The difference from the previous value, or null if this is a full value. */
+    @Nullable public D diff() {
+      return diff;
+    }
+
+    /**
+     * The version of the value after applying this delta. A diff applies to the value with the
+     * preceding version.
+     */
+    public long version() {
+      return version;
+    }
+
+    Delta<T, D> toFull() {
+      return full ? this : Delta.<T, D>full(fullState, version);
+    }
+
+    @Override public String toString() {
+      return full
+          ? "Delta.full(" + fullState + ", v" + version + ')'
+          : "Delta.diff(" + diff + ", v" + version + ')';
+    }
+  }
+
+  /** Sentinel for a subscriber which has not received any delta yet. */
+  static final long NO_VERSION = -1;
+
+  /**
+   * Returns the delta to deliver to a subscriber whose last delta had {@code lastVersion}, or null
+   * if it already has this version.
+   */
+  @Nullable
+  static <T, D> Delta<T, D> resync(Delta<T, D> delta, long lastVersion) {
+    if (delta.isFull()) {
+      return delta;
+    }
+    long version = delta.version();
+    if (lastVersion != NO_VERSION && version <= lastVersion) {
+      return null;
+    }
+    if (version == lastVersion + 1 && lastVersion != NO_VERSION) {
+      return delta;
+    }
+    return delta.toFull();
+  }
+
+  static final class DeltaObservable<T, D> extends Observable<Delta<T, D>> {
+    private final Observable<Delta<T, D>> upstream;
+
+    DeltaObservable(Observable<Delta<T, D>> upstream) {
+      this.upstream = upstream;
+    }
+
+    @Override protected void subscribeActual(Observer<? super Delta<T, D>> observer) {
+      upstream.subscribe(new DeltaObserver<>(observer));
+    }
+  }
+
+  static final class DeltaObserver<T, D> implements Observer<Delta<T, D>> {
+    private final Observer<? super Delta<T, D>> downstream;
+    private long lastVersion = NO_VERSION;
+
+    DeltaObserver(Observer<? super Delta<T, D>> downstream) {
+      this.downstream = downstream;
+    }
+
+    @Override public void onSubscribe(Disposable d) {
+      downstream.onSubscribe(d);
+    }
+
+    @Override public void onNext(Delta<T, D> delta) {
+      Delta<T, D> resynced = resync(delta, lastVersion);
+      if (resynced != null) {
+        lastVersion = resynced.version();
+        downstream.onNext(resynced);
+      }
+    }
+
+    @Override public void onError(Throwable e) {
+      downstream.onError(e);
+    }
+
+    @Override public void onComplete() {
+      downstream.onComplete();
+    }
+  }
+
+  static final class DeltaFlowable<T, D> extends Flowable<Delta<T, D>> {
+    private final Flowable<Delta<T, D>> upstream;
+
+    DeltaFlowable(Flowable<Delta<T, D>> upstream) {
+      this.upstream = upstream;
+    }
+
+    @Override protected void subscribeActual(Subscriber<? super Delta<T, D>> subscriber) {
+      upstream.subscribe(new DeltaSubscriber<>(subscriber));
+    }
+  }
+
+  static final class DeltaSubscriber<T, D> implements Subscriber<Delta<T, D>>, Subscription {
+    private final Subscriber<? super Delta<T, D>> downstream;
+    private @Nullable Subscription upstream;
+    private long lastVersion = NO_VERSION;
+
+    DeltaSubscriber(Subscriber<? super Delta<T, D>> downstream) {
+      this.downstream = downstream;
+    }
+
+    @Override public void onSubscribe(Subscription s) {
+      upstream = s;
+      downstream.onSubscribe(this);
+    }
+
+    @Override public void onNext(Delta<T, D> delta) {
+      Delta<T, D> resynced = resync(delta, lastVersion);
+      if (resynced != null) {
+        lastVersion = resynced.version();
+        downstream.onNext(resynced);
+      } else {
+        // Replenish the request consumed by the skipped delta.
+        request(1);
+      }
+    }
+
+    @Override public void onError(Throwable t) {
+      downstream.onError(t);
+    }
+
+    @Override public void onComplete() {
+      downstream.onComplete();
+    }
+
+    @Override public void request(long n) {
+      Subscription upstream = this.upstream;
+      assert upstream != null;
+      upstream.request(n);
+    }
+
+    @Override public void cancel() {
+      Subscription upstream = this.upstream;
+      assert upstream != null;
+      upstream.cancel();
+    }
+  }
+
+  static final class ObservableConnector<T, D> implements Supplier<Observable<Delta<T, D>>> {
+    private final Observable<T> upstream;
+    private final LastSeen<Delta<T, D>> lastSeen;
+    private final Differ<T, D> differ;
+
+    ObservableConnector(Observable<T> upstream, LastSeen<Delta<T, D>> lastSeen,
+        Differ<T, D> differ) {
+      this.upstream = upstream;
+      this.lastSeen = lastSeen;
+      this.differ = differ;
+    }
+
+    @Override public Observable<Delta<T, D>> get() {
+      Connection<Delta<T, D>> connection = lastSeen.connect();
+      Differencer<T, D> differencer = new Differencer<>(lastSeen, connection, differ);
+      return upstream.map(differencer).doOnTerminate(differencer).doOnDispose(connection);
+    }
+  }
+
+  static final class FlowableConnector<T, D> implements Supplier<Flowable<Delta<T, D>>> {
+    private final Flowable<T> upstream;
+    private final LastSeen<Delta<T, D>> lastSeen;
+    private final Differ<T, D> differ;
+
+    FlowableConnector(Flowable<T> upstream, LastSeen<Delta<T, D>> lastSeen,
+        Differ<T, D> differ) {
+      this.upstream = upstream;
+      this.lastSeen = lastSeen;
+      this.differ = differ;
+    }
+
+    @Override public Flowable<Delta<T, D>> get() {
+      Connection<Delta<T, D>> connection = lastSeen.connect();
+      Differencer<T, D> differencer = new Differencer<>(lastSeen, connection, differ);
+      return upstream.map(differencer).doOnTerminate(differencer).doOnCancel(connection);
+    }
+  }
+
+  static final class Differencer<T, D> implements Function<T, Delta<T, D>>, Action {
+    private final LastSeen<Delta<T, D>> lastSeen;
+    private final Connection<Delta<T, D>> connection;
+    private final Differ<T, D> differ;
+
+    Differencer(LastSeen<Delta<T, D>> lastSeen, Connection<Delta<T, D>> connection,
+        Differ<T, D> differ) {
+      this.lastSeen = lastSeen;
+      this.connection = connection;
+      this.differ = differ;
+    }
+
+    @Override public Delta<T, D> apply(T next) throws Throwable {
+      Delta<T, D> previous = lastSeen.value();
+      long version = previous != null ? previous.version() + 1 : 0;
+      Delta<T, D> full = Delta.full(next, version);
+      if (previous == null) {
+        connection.onNext(full);
+        return full;
+      }
+      D diff = differ.diff(previous.fullState, next);
+      connection.onNext(full);
+      return Delta.diff(next, diff, version);
+    }
+
+    @Override public void run() {
+      connection.onComplete();
+    }
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.functions.Supplier;
+import java.util.List;
+
+final class FlowableCombiner<T, R> implements Supplier<Flowable<R>> {
+  private final List<Flowable<? extends T>> sources;
+  private final CombineStore<R> store;
+
+  FlowableCombiner(List<Flowable<? extends T>> sources, CombineStore<R> store) {
+    this.sources = sources;
+    this.store = store;
+  }
+
+  @Override public Flowable<R> get() {
+    CombineMemo<R> memo = store.connect();
+    return Flowable.combineLatest(sources, memo)
+        .filter(memo)
+        .doOnEach(memo)
+        .doOnCancel(memo);
+  }
+}
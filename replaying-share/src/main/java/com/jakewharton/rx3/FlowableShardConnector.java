@@ -0,0 +1,40 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.functions.Supplier;
+
+final class FlowableShardConnector<T> implements Supplier<Flowable<T>> {
+  private final Flowable<T> upstream;
+  private final Scheduler scheduler;
+  private final ShardTracker tracker;
+
+  FlowableShardConnector(Flowable<T> upstream, Scheduler scheduler, ShardTracker tracker) {
+    this.upstream = upstream;
+    this.scheduler = scheduler;
+    this.tracker = tracker;
+  }
+
+  @Override public Flowable<T> get() {
+    ShardProgress progress = new ShardProgress();
+    tracker.progress = progress;
+    return upstream.doOnNext(progress.queued)
+        .observeOn(scheduler, true)
+        .doOnNext(progress.delivered);
+  }
+}
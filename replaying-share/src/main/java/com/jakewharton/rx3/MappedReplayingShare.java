@@ -0,0 +1,308 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import com.jakewharton.rx3.ReplayingShare.Connection;
+import com.jakewharton.rx3.ReplayingShare.LastSeen;
+import com.jakewharton.rx3.ReplayingShare.LastSeenFlowable;
+import com.jakewharton.rx3.ReplayingShare.LastSeenObservable;
+import io.reactivex.rxjava3.annotations.NonNull;
+import io.reactivex.rxjava3.annotations.Nullable;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.FlowableTransformer;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.ObservableTransformer;
+import io.reactivex.rxjava3.core.Observer;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.disposables.SerialDisposable;
+import io.reactivex.rxjava3.exceptions.Exceptions;
+import io.reactivex.rxjava3.functions.Action;
+import io.reactivex.rxjava3.functions.Consumer;
+import io.reactivex.rxjava3.functions.Supplier;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A `ReplayingShare` transformer which additionally publishes each value to a memory-mapped file
+ * so that other processes on the same host can observe it using {@link #reader}.
+ * <p>
+ * The file holds a single slot guarded by a seqlock. Values are serialized directly into the
+ * mapping and deserialized directly out of it. A terminal event clears the slot. Only one
+ * publisher may write to a file at a time, so each instance can only be applied to a single
+ * upstream.
+ */
+public final class MappedReplayingShare<T>
+    implements ObservableTransformer<T, T>, FlowableTransformer<T, T> {
+  /** Converts values to and from the bytes stored in the memory-mapped slot. */
+  public interface Serializer<T> {
+    /**
+     * Write {@code value} to {@code sink} starting at its position. A
+     * {@link java.nio.BufferOverflowException} is thrown if the value exceeds the slot capacity.
+     */
+    void write(@NonNull T value, @NonNull ByteBuffer sink) throws Throwable;
+
+    /**
+     * Read a value from the {@code source} bytes. The bytes may be concurrently modified while
+     * reading in which case any exception or value is discarded and the read is retried. Lengths
+     * read from {@code source} must not be trusted beyond {@link ByteBuffer#remaining()}.
+     */
+    @NonNull T read(@NonNull ByteBuffer source) throws Throwable;
+  }
+
+  /**
+   * Creates a transformer which publishes to {@code file}, creating it if needed.
+   *
+   * @param capacity the maximum number of bytes a serialized value may occupy.
+   */
+  @NonNull
+  public static <T> MappedReplayingShare<T> publisher(@NonNull File file, int capacity,
+      @NonNull Serializer<T> serializer) throws IOException {
+    if (file == null) throw new NullPointerException("file == null");
+    if (serializer == null) throw new NullPointerException("serializer == null");
+    return new MappedReplayingShare<>(MappedSlot.openWriter(file, capacity), serializer);
+  }
+
+  /**
+   * Creates a stream of the values published to {@code file} by another process. The file is
+   * polled every {@code period} on {@code scheduler} while there are subscribers. Like the
+   * streams produced by {@link ReplayingShare}, the last value is replayed to new subscribers and
+   * the polling is shared between them.
+   * <p>
+   * When the publisher terminates and clears the slot after having published a value, the stream
+   * completes so that the stale value is no longer replayed. Resubscribe to await a new
+   * publisher.
+   */
+  @NonNull
+  public static <T> Observable<T> reader(@NonNull File file, @NonNull Serializer<T> serializer,
+      long period, @NonNull TimeUnit unit, @NonNull Scheduler scheduler) {
+    if (file == null) throw new NullPointerException("file == null");
+    if (serializer == null) throw new NullPointerException("serializer == null");
+    if (unit == null) throw new NullPointerException("unit == null");
+    if (scheduler == null) throw new NullPointerException("scheduler == null");
+    if (period <= 0) throw new IllegalArgumentException("period <= 0: " + period);
+    return new MappedObservable<>(file, serializer, period, unit, scheduler)
+        .compose(ReplayingShare.<T>instance());
+  }
+
+  @SuppressWarnings("rawtypes") // Updaters cannot be created for generic types.
+  private static final AtomicIntegerFieldUpdater<MappedReplayingShare> APPLIED =
+      AtomicIntegerFieldUpdater.newUpdater(MappedReplayingShare.class, "applied");
+
+  private final MappedSlot slot;
+  private final Serializer<T> serializer;
+  @SuppressWarnings("UnusedVariable") // Accessed through APPLIED.
+  private volatile int applied;
+
+  private MappedReplayingShare(MappedSlot slot, Serializer<T> serializer) {
+    this.slot = slot;
+    this.serializer = serializer;
+  }
+
+  /** @throws IllegalStateException if this instance was already applied to another upstream. */
+  @Override public Observable<T> apply(Observable<T> upstream) {
+    checkNotApplied();
+    LastSeen<T> lastSeen = new LastSeen<>(null);
+    Observable<T> cached =
+        Observable.defer(new ObservableSlotConnector<>(upstream, lastSeen, slot, serializer));
+    return new LastSeenObservable<>(cached.share(), lastSeen);
+  }
+
+  /** @throws IllegalStateException if this instance was already applied to another upstream. */
+  @Override public Flowable<T> apply(Flowable<T> upstream) {
+    checkNotApplied();
+    LastSeen<T> lastSeen = new LastSeen<>(null);
+    Flowable<T> cached =
+        Flowable.defer(new FlowableSlotConnector<>(upstream, lastSeen, slot, serializer));
+    return new LastSeenFlowable<>(cached.share(), lastSeen);
+  }
+
+  private void checkNotApplied() {
+    if (!APPLIED.compareAndSet(this, 0, 1)) {
+      throw new IllegalStateException("A MappedReplayingShare can only be applied once");
+    }
+  }
+
+  static final class ObservableSlotConnector<T> implements Supplier<Observable<T>> {
+    private final Observable<T> upstream;
+    private final LastSeen<T> lastSeen;
+    private final MappedSlot slot;
+    private final Serializer<T> serializer;
+
+    ObservableSlotConnector(Observable<T> upstream, LastSeen<T> lastSeen, MappedSlot slot,
+        Serializer<T> serializer) {
+      this.upstream = upstream;
+      this.lastSeen = lastSeen;
+      this.slot = slot;
+      this.serializer = serializer;
+    }
+
+    @Override public Observable<T> get() {
+      Connection<T> connection = lastSeen.connect();
+      SlotWriter<T> writer = new SlotWriter<>(slot, serializer, lastSeen, connection);
+      // The writer runs first so that it still owns the slot when a terminal event clears it.
+      return upstream.doOnNext(writer)
+          .doOnTerminate(writer)
+          .doOnEach(connection)
+          .doOnDispose(connection);
+    }
+  }
+
+  static final class FlowableSlotConnector<T> implements Supplier<Flowable<T>> {
+    private final Flowable<T> upstream;
+    private final LastSeen<T> lastSeen;
+    private final MappedSlot slot;
+    private final Serializer<T> serializer;
+
+    FlowableSlotConnector(Flowable<T> upstream, LastSeen<T> lastSeen, MappedSlot slot,
+        Serializer<T> serializer) {
+      this.upstream = upstream;
+      this.lastSeen = lastSeen;
+      this.slot = slot;
+      this.serializer = serializer;
+    }
+
+    @Override public Flowable<T> get() {
+      Connection<T> connection = lastSeen.connect();
+      SlotWriter<T> writer = new SlotWriter<>(slot, serializer, lastSeen, connection);
+      // The writer runs first so that it still owns the slot when a terminal event clears it.
+      return upstream.doOnNext(writer)
+          .doOnTerminate(writer)
+          .doOnEach(connection)
+          .doOnCancel(connection);
+    }
+  }
+
+  /**
+   * Writes the values of a single upstream connection to the slot. {@link MappedSlot} only
+   * supports a single writer, so a connection which was superseded but is still emitting stops
+   * writing as soon as its successor connects.
+   */
+  static final class SlotWriter<T> implements Consumer<T>, Action {
+    private final MappedSlot slot;
+    private final Serializer<T> serializer;
+    private final LastSeen<T> lastSeen;
+    private final Connection<T> connection;
+
+    SlotWriter(MappedSlot slot, Serializer<T> serializer, LastSeen<T> lastSeen,
+        Connection<T> connection) {
+      this.slot = slot;
+      this.serializer = serializer;
+      this.lastSeen = lastSeen;
+      this.connection = connection;
+    }
+
+    @Override public void accept(T value) throws Throwable {
+      synchronized (slot) {
+        if (lastSeen.current == connection) {
+          slot.write(value, serializer);
+        }
+      }
+    }
+
+    @Override public void run() {
+      synchronized (slot) {
+        if (lastSeen.current == connection) {
+          slot.clear();
+        }
+      }
+    }
+  }
+
+  static final class MappedObservable<T> extends Observable<T> {
+    private final File file;
+    private final Serializer<T> serializer;
+    private final long period;
+    private final TimeUnit unit;
+    private final Scheduler scheduler;
+
+    MappedObservable(File file, Serializer<T> serializer, long period, TimeUnit unit,
+        Scheduler scheduler) {
+      this.file = file;
+      this.serializer = serializer;
+      this.period = period;
+      this.unit = unit;
+      this.scheduler = scheduler;
+    }
+
+    @Override protected void subscribeActual(Observer<? super T> observer) {
+      SlotPoller<T> poller = new SlotPoller<>(observer, file, serializer);
+      observer.onSubscribe(poller);
+      poller.task.replace(scheduler.schedulePeriodicallyDirect(poller, 0L, period, unit));
+    }
+  }
+
+  static final class SlotPoller<T> implements Runnable, Disposable {
+    final SerialDisposable task = new SerialDisposable();
+    private final Observer<? super T> downstream;
+    private final File file;
+    private final Serializer<T> serializer;
+    private @Nullable MappedSlot slot;
+    private boolean received;
+
+    SlotPoller(Observer<? super T> downstream, File file, Serializer<T> serializer) {
+      this.downstream = downstream;
+      this.file = file;
+      this.serializer = serializer;
+    }
+
+    @Override public void run() {
+      if (task.isDisposed()) return;
+
+      Object value;
+      try {
+        MappedSlot slot = this.slot;
+        if (slot == null) {
+          slot = MappedSlot.openReader(file);
+          if (slot == null) return; // Not published yet.
+          this.slot = slot;
+        }
+        value = slot.read(serializer);
+      } catch (Throwable t) {
+        Exceptions.throwIfFatal(t);
+        task.dispose();
+        downstream.onError(t);
+        return;
+      }
+      if (value == null) {
+        return; // Unchanged or a write is in progress.
+      }
+      if (value == MappedSlot.CLEARED) {
+        // A slot which was never written to is just waiting for its publisher's first value.
+        if (received) {
+          task.dispose();
+          downstream.onComplete();
+        }
+        return;
+      }
+      received = true;
+      @SuppressWarnings("unchecked") // Produced by our serializer.
+      T castValue = (T) value;
+      downstream.onNext(castValue);
+    }
+
+    @Override public void dispose() {
+      task.dispose();
+    }
+
+    @Override public boolean isDisposed() {
+      return task.isDisposed();
+    }
+  }
+}
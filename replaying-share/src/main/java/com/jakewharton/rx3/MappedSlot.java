@@ -0,0 +1,193 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import com.jakewharton.rx3.MappedReplayingShare.Serializer;
+import io.reactivex.rxjava3.annotations.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import sun.misc.Unsafe;
+
+/**
+ * A single value slot in a memory-mapped file guarded by a seqlock.
+ * <p>
+ * Layout: an 8-byte sequence which is odd while a write is in progress, a 4-byte payload length
+ * (negative when the slot is empty), a 4-byte payload capacity, and then the payload itself.
+ * <p>
+ * Accesses to a mapping are plain memory accesses. Like {@code StampedLock}, the writer issues a
+ * store fence after making the sequence odd and before making it even again, and the reader
+ * issues a load fence after reading the sequence and before validating it, so that payload
+ * accesses cannot be reordered outside of the sequence accesses by the JIT or the CPU. Java 8 only
+ * exposes these fences through {@code sun.misc.Unsafe}.
+ */
+final class MappedSlot {
+  static final int SEQUENCE_OFFSET = 0;
+  static final int LENGTH_OFFSET = 8;
+  static final int CAPACITY_OFFSET = 12;
+  static final int HEADER_SIZE = 16;
+
+  private static final int EMPTY = -1;
+  /** Bounds how long a reader spins on a write in progress before deferring to its next poll. */
+  private static final int MAX_READ_ATTEMPTS = 64;
+
+  /** Returned by {@link #read} when the slot was cleared since the last call. */
+  static final Object CLEARED = new Object();
+
+  static MappedSlot openWriter(File file, int capacity) throws IOException {
+    if (capacity <= 0) throw new IllegalArgumentException("capacity <= 0: " + capacity);
+    MappedByteBuffer buffer;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      FileChannel channel = raf.getChannel();
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+    }
+    MappedSlot slot = new MappedSlot(buffer, capacity);
+    slot.initializeWriter();
+    return slot;
+  }
+
+  /** Returns null if the file does not exist yet or has not been initialized by a writer. */
+  static @Nullable MappedSlot openReader(File file) throws IOException {
+    if (!file.exists()) return null;
+    MappedByteBuffer buffer;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      if (size < HEADER_SIZE) return null;
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+    int capacity = buffer.getInt(CAPACITY_OFFSET);
+    if (capacity <= 0 || HEADER_SIZE + capacity > buffer.capacity()) return null;
+    return new MappedSlot(buffer, capacity);
+  }
+
+  private static final Unsafe UNSAFE;
+
+  static {
+    try {
+      Field field = Unsafe.class.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      UNSAFE = (Unsafe) field.get(null);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private final ByteBuffer buffer;
+  private final ByteBuffer payload;
+  private final int capacity;
+  private long sequence = -1;
+
+  private MappedSlot(ByteBuffer buffer, int capacity) {
+    this.buffer = buffer;
+    this.capacity = capacity;
+    buffer.position(HEADER_SIZE);
+    buffer.limit(HEADER_SIZE + capacity);
+    this.payload = buffer.slice();
+    buffer.clear();
+  }
+
+  private void initializeWriter() {
+    long current = buffer.getLong(SEQUENCE_OFFSET);
+    // Round up to the next even value in case a previous writer died mid-write.
+    sequence = (current + 1) & ~1L;
+    buffer.putInt(CAPACITY_OFFSET, capacity);
+    clear();
+  }
+
+  /** Must only be called from a single writer thread at a time. */
+  <T> void write(T value, Serializer<T> serializer) throws Throwable {
+    beginWrite();
+    int length = EMPTY;
+    try {
+      ByteBuffer payload = this.payload;
+      payload.clear();
+      serializer.write(value, payload);
+      length = payload.position();
+    } finally {
+      endWrite(length);
+    }
+  }
+
+  /** Must only be called from a single writer thread at a time. */
+  void clear() {
+    beginWrite();
+    endWrite(EMPTY);
+  }
+
+  private void beginWrite() {
+    buffer.putLong(SEQUENCE_OFFSET, ++sequence);
+    UNSAFE.storeFence(); // The odd sequence must be visible before any payload store.
+  }
+
+  private void endWrite(int length) {
+    buffer.putInt(LENGTH_OFFSET, length);
+    UNSAFE.storeFence(); // Every payload store must be visible before the even sequence.
+    buffer.putLong(SEQUENCE_OFFSET, ++sequence);
+  }
+
+  /**
+   * Returns the value most recently written, {@link #CLEARED} if the slot was emptied, or null if
+   * the slot has not changed since the last call or a write is still in progress. Must only be
+   * called from a single reader thread at a time.
+   * <p>
+   * A writer which died mid-write leaves the sequence odd until the next writer opens the file so
+   * a write in progress is only retried a bounded number of times.
+   */
+  @Nullable Object read(Serializer<?> serializer) throws Throwable {
+    for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+      long before = buffer.getLong(SEQUENCE_OFFSET);
+      UNSAFE.loadFence(); // No payload load may happen before the sequence is read.
+      if ((before & 1L) != 0) {
+        continue; // Write in progress.
+      }
+      if (before == sequence) {
+        return null;
+      }
+
+      int length = buffer.getInt(LENGTH_OFFSET);
+      Object value = null;
+      Throwable failure = null;
+      if (length >= 0 && length <= capacity) {
+        ByteBuffer payload = this.payload;
+        payload.limit(length);
+        payload.position(0);
+        try {
+          value = serializer.read(payload);
+        } catch (Throwable t) {
+          // Possibly a torn read. Only surface it if the sequence confirms the payload was stable.
+          failure = t;
+        }
+      }
+
+      UNSAFE.loadFence(); // Every payload load must happen before the sequence is validated.
+      long after = buffer.getLong(SEQUENCE_OFFSET);
+      if (before != after) {
+        continue;
+      }
+      sequence = before;
+      if (failure != null) {
+        throw failure;
+      }
+      return length == EMPTY ? CLEARED : value;
+    }
+    return null;
+  }
+}
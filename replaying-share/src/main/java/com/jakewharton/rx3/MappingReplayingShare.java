@@ -0,0 +1,237 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import io.reactivex.rxjava3.annotations.NonNull;
+import io.reactivex.rxjava3.annotations.Nullable;
+import io.reactivex.rxjava3.core.BackpressureStrategy;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.FlowableTransformer;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.ObservableTransformer;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.functions.Action;
+import io.reactivex.rxjava3.functions.Function;
+import io.reactivex.rxjava3.functions.Predicate;
+import io.reactivex.rxjava3.functions.Supplier;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A variant of {@link ReplayingShare} which applies an expensive {@code mapper} to upstream values
+ * before sharing the results.
+ * <p>
+ * The last upstream value is remembered along with its mapped result. When upstream emits a value
+ * which is {@linkplain Object#equals(Object) equal} to the last one, such as when re-emitting its
+ * current state after reconnecting, the mapper is not invoked again and nothing new is emitted
+ * since subscribers already received the cached result.
+ */
+public final class MappingReplayingShare<T, R>
+    implements ObservableTransformer<T, R>, FlowableTransformer<T, R> {
+  /**
+   * Creates a `MappingReplayingShare` transformer which invokes {@code mapper} synchronously on
+   * the thread of each upstream value.
+   */
+  @NonNull
+  public static <T, R> MappingReplayingShare<T, R> create(
+      @NonNull Function<? super T, ? extends R> mapper) {
+    if (mapper == null) throw new NullPointerException("mapper == null");
+    return new MappingReplayingShare<>(mapper, null);
+  }
+
+  /**
+   * Creates a `MappingReplayingShare` transformer which invokes {@code mapper} on
+   * {@code scheduler}. At most one value is mapped at a time. Values which arrive while the mapper
+   * is running replace each other so that only the newest one is mapped next.
+   */
+  @NonNull
+  public static <T, R> MappingReplayingShare<T, R> create(
+      @NonNull Function<? super T, ? extends R> mapper, @NonNull Scheduler scheduler) {
+    if (mapper == null) throw new NullPointerException("mapper == null");
+    if (scheduler == null) throw new NullPointerException("scheduler == null");
+    return new MappingReplayingShare<>(mapper, scheduler);
+  }
+
+  private final Function<? super T, ? extends R> mapper;
+  private final @Nullable Scheduler scheduler;
+
+  private MappingReplayingShare(Function<? super T, ? extends R> mapper,
+      @Nullable Scheduler scheduler) {
+    this.mapper = mapper;
+    this.scheduler = scheduler;
+  }
+
+  @Override public Observable<R> apply(Observable<T> upstream) {
+    MemoStore<T, R> store = new MemoStore<>(mapper);
+    return Observable.defer(new ObservableMapper<>(upstream, scheduler, store))
+        .compose(ReplayingShare.<R>instance());
+  }
+
+  @Override public Flowable<R> apply(Flowable<T> upstream) {
+    MemoStore<T, R> store = new MemoStore<>(mapper);
+    return Flowable.defer(new FlowableMapper<>(upstream, scheduler, store))
+        .compose(ReplayingShare.<R>instance());
+  }
+
+  static final class ObservableMapper<T, R> implements Supplier<Observable<R>> {
+    private final Observable<T> upstream;
+    private final @Nullable Scheduler scheduler;
+    private final MemoStore<T, R> store;
+
+    ObservableMapper(Observable<T> upstream, @Nullable Scheduler scheduler,
+        MemoStore<T, R> store) {
+      this.upstream = upstream;
+      this.scheduler = scheduler;
+      this.store = store;
+    }
+
+    @Override public Observable<R> get() {
+      MapMemo<T, R> memo = store.connect();
+      Scheduler scheduler = this.scheduler;
+      if (scheduler != null) {
+        return upstream.toFlowable(BackpressureStrategy.LATEST)
+            .observeOn(scheduler, false, 1)
+            .map(memo)
+            .filter(memo)
+            .doOnTerminate(memo)
+            .toObservable();
+      }
+      return upstream.map(memo).filter(memo).doOnTerminate(memo);
+    }
+  }
+
+  static final class FlowableMapper<T, R> implements Supplier<Flowable<R>> {
+    private final Flowable<T> upstream;
+    private final @Nullable Scheduler scheduler;
+    private final MemoStore<T, R> store;
+
+    FlowableMapper(Flowable<T> upstream, @Nullable Scheduler scheduler, MemoStore<T, R> store) {
+      this.upstream = upstream;
+      this.scheduler = scheduler;
+      this.store = store;
+    }
+
+    @Override public Flowable<R> get() {
+      MapMemo<T, R> memo = store.connect();
+      Scheduler scheduler = this.scheduler;
+      Flowable<T> source = upstream;
+      if (scheduler != null) {
+        source = upstream.onBackpressureLatest().observeOn(scheduler, false, 1);
+      }
+      return source.map(memo).filter(memo).doOnTerminate(memo);
+    }
+  }
+
+  /**
+   * The last mapped value shared across upstream connections. Each connection gets its own
+   * {@link MapMemo} seeded from the store, and only the newest connection may write back to it so
+   * that a stale connection which is still emitting cannot overwrite its successor's memo.
+   */
+  static final class MemoStore<T, R> {
+    @SuppressWarnings("rawtypes") // Updaters cannot be created for generic types.
+    private static final AtomicReferenceFieldUpdater<MemoStore, Entry> CURRENT =
+        AtomicReferenceFieldUpdater.newUpdater(MemoStore.class, Entry.class, "current");
+
+    private final Function<? super T, ? extends R> mapper;
+    private volatile Entry<T, R> current = new Entry<>(0, null, null);
+
+    MemoStore(Function<? super T, ? extends R> mapper) {
+      this.mapper = mapper;
+    }
+
+    MapMemo<T, R> connect() {
+      while (true) {
+        Entry<T, R> current = this.current;
+        Entry<T, R> next = new Entry<>(current.generation + 1, current.value, current.result);
+        if (CURRENT.compareAndSet(this, current, next)) {
+          return new MapMemo<>(mapper, this, next);
+        }
+      }
+    }
+
+    void update(long generation, @Nullable T value, @Nullable R result) {
+      while (true) {
+        Entry<T, R> current = this.current;
+        if (current.generation != generation) {
+          return; // A newer connection owns the store.
+        }
+        if (CURRENT.compareAndSet(this, current, new Entry<>(generation, value, result))) {
+          return;
+        }
+      }
+    }
+
+    static final class Entry<T, R> {
+      final long generation;
+      final @Nullable T value;
+      final @Nullable R result;
+
+      Entry(long generation, @Nullable T value, @Nullable R result) {
+        this.generation = generation;
+        this.value = value;
+        this.result = result;
+      }
+    }
+  }
+
+  /**
+   * Skips invoking the mapper when the upstream value equals the last one. Created per upstream
+   * connection and seeded from the {@link MemoStore} so that it survives reconnecting, but
+   * cleared by terminal events just like the cache.
+   */
+  static final class MapMemo<T, R> implements Function<T, R>, Predicate<R>, Action {
+    private final Function<? super T, ? extends R> mapper;
+    private final MemoStore<T, R> store;
+    private final long generation;
+    private @Nullable T value;
+    private @Nullable R result;
+    private boolean duplicate;
+
+    MapMemo(Function<? super T, ? extends R> mapper, MemoStore<T, R> store,
+        MemoStore.Entry<T, R> seed) {
+      this.mapper = mapper;
+      this.store = store;
+      this.generation = seed.generation;
+      this.value = seed.value;
+      this.result = seed.result;
+    }
+
+    @Override public R apply(T value) throws Throwable {
+      R result = this.result;
+      T lastValue = this.value;
+      if (result != null && lastValue != null && lastValue.equals(value)) {
+        duplicate = true;
+        return result;
+      }
+      duplicate = false;
+      result = mapper.apply(value);
+      if (result == null) throw new NullPointerException("mapper returned null");
+      this.value = value;
+      this.result = result;
+      store.update(generation, value, result);
+      return result;
+    }
+
+    @Override public boolean test(R result) {
+      return !duplicate;
+    }
+
+    @Override public void run() {
+      value = null;
+      result = null;
+      store.update(generation, null, null);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.functions.Supplier;
+import java.util.List;
+
+final class ObservableCombiner<T, R> implements Supplier<Observable<R>> {
+  private final List<Observable<? extends T>> sources;
+  private final CombineStore<R> store;
+
+  ObservableCombiner(List<Observable<? extends T>> sources, CombineStore<R> store) {
+    this.sources = sources;
+    this.store = store;
+  }
+
+  @Override public Observable<R> get() {
+    CombineMemo<R> memo = store.connect();
+    return Observable.combineLatest(sources, memo)
+        .filter(memo)
+        .doOnEach(memo)
+        .doOnDispose(memo);
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import io.reactivex.rxjava3.annotations.Nullable;
+import io.reactivex.rxjava3.functions.Action;
+
+/** How each {@link OverflowSubscriber} handles values which arrive without demand. */
+final class Overflow {
+  static final int DROP = 0;
+  static final int LATEST = 1;
+  static final int BUFFER = 2;
+
+  final int strategy;
+  final int capacity;
+  final @Nullable Action onOverflow;
+
+  Overflow(int strategy, int capacity, @Nullable Action onOverflow) {
+    this.strategy = strategy;
+    this.capacity = capacity;
+    this.onOverflow = onOverflow;
+  }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import com.jakewharton.rx3.ReplayingShare.LastSeen;
+import com.jakewharton.rx3.ReplayingShare.LastSeenSubscriber;
+import io.reactivex.rxjava3.annotations.Nullable;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.exceptions.Exceptions;
+import io.reactivex.rxjava3.exceptions.MissingBackpressureException;
+import io.reactivex.rxjava3.functions.Action;
+import io.reactivex.rxjava3.internal.fuseable.SimplePlainQueue;
+import io.reactivex.rxjava3.internal.queue.SpscArrayQueue;
+import io.reactivex.rxjava3.internal.queue.SpscLinkedArrayQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * A {@link LastSeenSubscriber} which requests everything from the shared upstream and applies
+ * its {@link Overflow} strategy to its own downstream, so that it never limits the demand of the
+ * other subscribers. The cached value is replayed through the same queue as upstream values.
+ */
+final class OverflowSubscriber<T> implements Subscriber<T>, Subscription {
+  @SuppressWarnings("rawtypes") // Updaters cannot be created for generic types.
+  private static final AtomicIntegerFieldUpdater<OverflowSubscriber> REMOVED =
+      AtomicIntegerFieldUpdater.newUpdater(OverflowSubscriber.class, "removed");
+  @SuppressWarnings("rawtypes") // Updaters cannot be created for generic types.
+  private static final AtomicIntegerFieldUpdater<OverflowSubscriber> WIP =
+      AtomicIntegerFieldUpdater.newUpdater(OverflowSubscriber.class, "wip");
+  @SuppressWarnings("rawtypes") // Updaters cannot be created for generic types.
+  private static final AtomicLongFieldUpdater<OverflowSubscriber> CONSUMED =
+      AtomicLongFieldUpdater.newUpdater(OverflowSubscriber.class, "consumed");
+  @SuppressWarnings("rawtypes") // Updaters cannot be created for generic types.
+  private static final AtomicLongFieldUpdater<OverflowSubscriber> REQUESTED =
+      AtomicLongFieldUpdater.newUpdater(OverflowSubscriber.class, "requested");
+  @SuppressWarnings("rawtypes") // Updaters cannot be created for generic types.
+  private static final AtomicReferenceFieldUpdater<OverflowSubscriber, Object> LATEST =
+      AtomicReferenceFieldUpdater.newUpdater(OverflowSubscriber.class, Object.class, "latest");
+
+  private final Subscriber<? super T> downstream;
+  private final LastSeen<T> lastSeen;
+  private final Overflow overflow;
+  private final boolean skipReplayed;
+  /** Values for {@link Overflow#DROP} and {@link Overflow#BUFFER}. */
+  private final @Nullable SimplePlainQueue<T> queue;
+
+  private @Nullable Subscription subscription;
+  private volatile boolean cancelled;
+  private volatile boolean done;
+  private @Nullable Throwable error;
+  private boolean first = true;
+  @SuppressWarnings("UnusedVariable") // Accessed through REMOVED.
+  private volatile int removed;
+  @SuppressWarnings("UnusedVariable") // Accessed through WIP.
+  private volatile int wip;
+  /**
+   * The number of values offered to and polled from {@link #queue} for {@link Overflow#BUFFER}.
+   * Each is only written by the producer or the consumer respectively.
+   */
+  private long produced;
+  private volatile long consumed;
+  /**
+   * Outstanding downstream demand. For {@link Overflow#DROP} this is decremented when a value
+   * is accepted into the queue rather than when it is delivered.
+   */
+  private volatile long requested;
+  /** The pending value for {@link Overflow#LATEST}. */
+  private volatile @Nullable Object latest;
+  /** The replayed value until the first upstream value, if {@link #skipReplayed}. */
+  private volatile @Nullable Object replayed;
+
+  OverflowSubscriber(Subscriber<? super T> downstream, LastSeen<T> lastSeen,
+      Overflow overflow, boolean skipReplayed) {
+    this.downstream = downstream;
+    this.lastSeen = lastSeen;
+    this.overflow = overflow;
+    this.skipReplayed = skipReplayed;
+    switch (overflow.strategy) {
+      case Overflow.DROP:
+        queue = new SpscLinkedArrayQueue<>(Flowable.bufferSize());
+        break;
+      case Overflow.BUFFER:
+        queue = new SpscArrayQueue<>(overflow.capacity);
+        break;
+      default:
+        queue = null;
+        break;
+    }
+  }
+
+  @Override public void onSubscribe(Subscription subscription) {
+    this.subscription = subscription;
+    lastSeen.subscriberAdded();
+
+    // Dropping replays on the first request instead, as there is nowhere to hold it until then.
+    T value = overflow.strategy != Overflow.DROP ? lastSeen.replayValue(subscription) : null;
+    if (value != null) {
+      if (skipReplayed) {
+        replayed = value;
+      }
+      if (overflow.strategy == Overflow.LATEST) {
+        latest = value;
+      } else if (overflow.strategy == Overflow.BUFFER) {
+        offer(value);
+        produced++;
+      }
+    }
+
+    downstream.onSubscribe(this);
+    if (!cancelled) {
+      subscription.request(Long.MAX_VALUE);
+    }
+  }
+
+  @Override public void request(long amount) {
+    if (amount <= 0) {
+      Subscription subscription = this.subscription;
+      assert subscription != null;
+      subscription.cancel();
+      onError(new IllegalArgumentException(
+          "§3.9 violated: positive request amount required but it was " + amount));
+      return;
+    }
+
+    if (first) {
+      first = false;
+
+      if (overflow.strategy == Overflow.DROP) {
+        T value = lastSeen.replayValue(subscription);
+        if (value != null) {
+          if (skipReplayed) {
+            replayed = value;
+          }
+          // Offered before any demand exists so that upstream values cannot overtake it.
+          offer(value);
+          if (amount != Long.MAX_VALUE && --amount == 0) {
+            drain();
+            return;
+          }
+        }
+      }
+    }
+    while (true) {
+      long current = requested;
+      long next = current + amount;
+      if (next < 0) {
+        next = Long.MAX_VALUE;
+      }
+      if (REQUESTED.compareAndSet(this, current, next)) {
+        break;
+      }
+    }
+    drain();
+  }
+
+  @Override public void cancel() {
+    Subscription subscription = this.subscription;
+    assert subscription != null;
+    cancelled = true;
+    remove();
+    subscription.cancel();
+    if (WIP.getAndIncrement(this) == 0) {
+      clear();
+    }
+  }
+
+  @Override public void onNext(T value) {
+    if (done) return;
+    if (skipReplayed && isReplayed(value)) return;
+
+    switch (overflow.strategy) {
+      case Overflow.DROP:
+        while (true) {
+          long current = requested;
+          if (current == 0) {
+            return;
+          }
+          if (current == Long.MAX_VALUE || REQUESTED.compareAndSet(this, current, current - 1)) {
+            break;
+          }
+        }
+        offer(value);
+        break;
+
+      case Overflow.LATEST:
+        latest = value;
+        break;
+
+      default:
+        if (produced - consumed >= overflow.capacity) {
+          overflow();
+          return;
+        }
+        offer(value);
+        produced++;
+        break;
+    }
+    drain();
+  }
+
+  private boolean isReplayed(T value) {
+    Object replayed = this.replayed;
+    if (replayed == null) {
+      return false;
+    }
+    this.replayed = null;
+    return replayed == value;
+  }
+
+  private void overflow() {
+    Subscription subscription = this.subscription;
+    assert subscription != null;
+    subscription.cancel();
+
+    MissingBackpressureException error =
+        new MissingBackpressureException("Buffer is full: " + overflow.capacity);
+    Action onOverflow = overflow.onOverflow;
+    assert onOverflow != null;
+    try {
+      onOverflow.run();
+    } catch (Throwable t) {
+      Exceptions.throwIfFatal(t);
+      error.initCause(t);
+    }
+    onError(error);
+  }
+
+  @Override public void onComplete() {
+    if (done) return;
+    done = true;
+    drain();
+  }
+
+  @Override public void onError(Throwable t) {
+    if (done) return;
+    error = t;
+    done = true;
+    drain();
+  }
+
+  private void drain() {
+    if (WIP.getAndIncrement(this) != 0) return;
+
+    Subscriber<? super T> downstream = this.downstream;
+    boolean dropping = overflow.strategy == Overflow.DROP;
+    int missed = 1;
+    while (true) {
+      long requested = this.requested;
+      long emitted = 0;
+
+      while (true) {
+        if (cancelled) {
+          clear();
+          return;
+        }
+        boolean done = this.done;
+        Throwable error = this.error;
+        if (done && error != null) {
+          clear();
+          remove();
+          downstream.onError(error);
+          return;
+        }
+        // Dropped values were already counted against the demand when they were accepted.
+        if (!dropping && emitted == requested) {
+          if (done && isEmpty()) {
+            remove();
+            downstream.onComplete();
+            return;
+          }
+          break;
+        }
+        T value = poll();
+        if (value == null) {
+          if (done) {
+            remove();
+            downstream.onComplete();
+            return;
+          }
+          break;
+        }
+        downstream.onNext(value);
+        emitted++;
+      }
+
+      if (!dropping && emitted != 0 && requested != Long.MAX_VALUE) {
+        REQUESTED.addAndGet(this, -emitted);
+      }
+      missed = WIP.addAndGet(this, -missed);
+      if (missed == 0) {
+        break;
+      }
+    }
+  }
+
+  /** Must only be called by the single producer. */
+  private void offer(T value) {
+    SimplePlainQueue<T> queue = this.queue;
+    assert queue != null;
+    queue.offer(value);
+  }
+
+  @SuppressWarnings("unchecked") // Only values of T are stored in latest.
+  private @Nullable T poll() {
+    SimplePlainQueue<T> queue = this.queue;
+    if (queue == null) {
+      return (T) LATEST.getAndSet(this, null);
+    }
+    T value = queue.poll();
+    if (value != null && overflow.strategy == Overflow.BUFFER) {
+      CONSUMED.lazySet(this, consumed + 1);
+    }
+    return value;
+  }
+
+  private boolean isEmpty() {
+    SimplePlainQueue<T> queue = this.queue;
+    return queue == null ? latest == null : queue.isEmpty();
+  }
+
+  private void clear() {
+    latest = null;
+    SimplePlainQueue<T> queue = this.queue;
+    if (queue != null) {
+      queue.clear();
+    }
+  }
+
+  private void remove() {
+    if (REMOVED.compareAndSet(this, 0, 1)) {
+      lastSeen.subscriberRemoved();
+    }
+  }
+}
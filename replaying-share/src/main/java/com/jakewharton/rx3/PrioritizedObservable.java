@@ -0,0 +1,34 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import com.jakewharton.rx3.ReplayingShare.LastSeenObservable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Observer;
+
+final class PrioritizedObservable<T> extends Observable<T> {
+  private final LastSeenObservable<T> shared;
+  private final int priority;
+
+  PrioritizedObservable(LastSeenObservable<T> shared, int priority) {
+    this.shared = shared;
+    this.priority = priority;
+  }
+
+  @Override protected void subscribeActual(Observer<? super T> observer) {
+    shared.subscribe(observer, priority);
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import io.reactivex.rxjava3.annotations.Nullable;
+import io.reactivex.rxjava3.core.Observer;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import java.util.Arrays;
+
+final class PriorityConnection<T> implements Observer<T> {
+  @SuppressWarnings("unchecked") // Generic array creation.
+  private static final PublishSubject<Object>[] EMPTY = new PublishSubject[0];
+
+  final PriorityObservable<T> parent;
+  int subscribers; // Guarded by parent.
+
+  /** Buckets in descending priority order. Replaced on write. */
+  private volatile PublishSubject<T>[] buckets;
+  private int[] priorities = new int[0]; // Guarded by this.
+  private boolean terminated; // Guarded by this.
+  private @Nullable Throwable error; // Guarded by this.
+  private volatile @Nullable Disposable upstream;
+  private volatile boolean disposed;
+
+  @SuppressWarnings("unchecked") // Safe because the array is empty.
+  PriorityConnection(PriorityObservable<T> parent) {
+    this.parent = parent;
+    buckets = (PublishSubject<T>[]) (PublishSubject<?>[]) EMPTY;
+  }
+
+  /**
+   * Returns the bucket for {@code priority}. Once terminated, a new bucket which has already
+   * received the terminal event is returned instead so that late subscribers are not left
+   * waiting on a connection which will never signal again.
+   */
+  synchronized PublishSubject<T> bucket(int priority) {
+    if (terminated) {
+      PublishSubject<T> bucket = PublishSubject.create();
+      Throwable error = this.error;
+      if (error != null) {
+        bucket.onError(error);
+      } else {
+        bucket.onComplete();
+      }
+      return bucket;
+    }
+
+    int[] priorities = this.priorities;
+    int index = 0;
+    while (index < priorities.length && priorities[index] > priority) {
+      index++;
+    }
+    PublishSubject<T>[] buckets = this.buckets;
+    if (index < priorities.length && priorities[index] == priority) {
+      return buckets[index];
+    }
+
+    PublishSubject<T> bucket = PublishSubject.create();
+    int[] newPriorities = new int[priorities.length + 1];
+    PublishSubject<T>[] newBuckets = Arrays.copyOf(buckets, buckets.length + 1);
+    System.arraycopy(priorities, 0, newPriorities, 0, index);
+    System.arraycopy(priorities, index, newPriorities, index + 1, priorities.length - index);
+    System.arraycopy(buckets, index, newBuckets, index + 1, buckets.length - index);
+    newPriorities[index] = priority;
+    newBuckets[index] = bucket;
+    this.priorities = newPriorities;
+    this.buckets = newBuckets;
+    return bucket;
+  }
+
+  @Override public void onSubscribe(Disposable d) {
+    upstream = d;
+    if (disposed) {
+      d.dispose();
+    }
+  }
+
+  @Override public void onNext(T value) {
+    for (PublishSubject<T> bucket : buckets) {
+      bucket.onNext(value);
+    }
+  }
+
+  @Override public void onError(Throwable e) {
+    parent.terminated(this);
+    for (PublishSubject<T> bucket : terminate(e)) {
+      bucket.onError(e);
+    }
+  }
+
+  @Override public void onComplete() {
+    parent.terminated(this);
+    for (PublishSubject<T> bucket : terminate(null)) {
+      bucket.onComplete();
+    }
+  }
+
+  /** Marks this connection terminated and returns the buckets which must be signaled. */
+  private synchronized PublishSubject<T>[] terminate(@Nullable Throwable error) {
+    terminated = true;
+    this.error = error;
+    return buckets;
+  }
+
+  void dispose() {
+    disposed = true;
+    Disposable upstream = this.upstream;
+    if (upstream != null) {
+      upstream.dispose();
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import io.reactivex.rxjava3.annotations.Nullable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Observer;
+
+/**
+ * A replacement for {@code share()} which keeps its subscribers in one bucket per priority.
+ * Upstream values are dispatched to the buckets in descending priority order.
+ */
+final class PriorityObservable<T> extends Observable<T> {
+  private final Observable<T> upstream;
+  private @Nullable PriorityConnection<T> connection; // Guarded by this.
+
+  PriorityObservable(Observable<T> upstream) {
+    this.upstream = upstream;
+  }
+
+  @Override protected void subscribeActual(Observer<? super T> observer) {
+    subscribe(observer, 0);
+  }
+
+  void subscribe(Observer<? super T> observer, int priority) {
+    PriorityConnection<T> connection;
+    boolean connect;
+    synchronized (this) {
+      connection = this.connection;
+      if (connection == null) {
+        connection = new PriorityConnection<>(this);
+        this.connection = connection;
+      }
+      connect = connection.subscribers++ == 0;
+    }
+    connection.bucket(priority).subscribe(new PriorityObserver<>(observer, connection));
+    if (connect) {
+      upstream.subscribe(connection);
+    }
+  }
+
+  void release(PriorityConnection<T> connection) {
+    synchronized (this) {
+      if (--connection.subscribers != 0 || this.connection != connection) {
+        return;
+      }
+      this.connection = null;
+    }
+    connection.dispose();
+  }
+
+  synchronized void terminated(PriorityConnection<T> connection) {
+    if (this.connection == connection) {
+      this.connection = null;
+    }
+  }
+}
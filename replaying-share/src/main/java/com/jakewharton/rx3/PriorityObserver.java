@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import io.reactivex.rxjava3.annotations.Nullable;
+import io.reactivex.rxjava3.core.Observer;
+import io.reactivex.rxjava3.disposables.Disposable;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+final class PriorityObserver<T> implements Observer<T>, Disposable {
+  @SuppressWarnings("rawtypes") // Updaters cannot be created for generic types.
+  private static final AtomicIntegerFieldUpdater<PriorityObserver> RELEASED =
+      AtomicIntegerFieldUpdater.newUpdater(PriorityObserver.class, "released");
+
+  private final Observer<? super T> downstream;
+  private final PriorityConnection<T> connection;
+
+  private @Nullable Disposable upstream;
+  @SuppressWarnings("UnusedVariable") // Accessed through RELEASED.
+  private volatile int released;
+
+  PriorityObserver(Observer<? super T> downstream, PriorityConnection<T> connection) {
+    this.downstream = downstream;
+    this.connection = connection;
+  }
+
+  @Override public void onSubscribe(Disposable d) {
+    upstream = d;
+    downstream.onSubscribe(this);
+  }
+
+  @Override public void onNext(T value) {
+    downstream.onNext(value);
+  }
+
+  @Override public void onError(Throwable e) {
+    release();
+    downstream.onError(e);
+  }
+
+  @Override public void onComplete() {
+    release();
+    downstream.onComplete();
+  }
+
+  @Override public void dispose() {
+    Disposable upstream = this.upstream;
+    assert upstream != null;
+    upstream.dispose();
+    release();
+  }
+
+  @Override public boolean isDisposed() {
+    Disposable upstream = this.upstream;
+    assert upstream != null;
+    return upstream.isDisposed();
+  }
+
+  private void release() {
+    if (RELEASED.compareAndSet(this, 0, 1)) {
+      connection.parent.release(connection);
+    }
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import com.jakewharton.rx3.ReplayingShare.LastSeen;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+
+/**
+ * Removes subscribers whose downstream was garbage collected. Collection is detected through a
+ * reference queue which is polled whenever a value is emitted or a subscriber is added.
+ */
+final class Reclaimer {
+  private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+  private final LastSeen<?> lastSeen;
+
+  Reclaimer(LastSeen<?> lastSeen) {
+    this.lastSeen = lastSeen;
+  }
+
+  <T> DownstreamReference<T> reference(T downstream, Reclaimable owner) {
+    return new DownstreamReference<>(downstream, queue, owner);
+  }
+
+  void reclaim() {
+    Reference<?> reference;
+    while ((reference = queue.poll()) != null) {
+      ((DownstreamReference<?>) reference).owner.reclaim();
+    }
+  }
+
+  void reclaimed() {
+    lastSeen.subscriberReclaimed();
+  }
+}
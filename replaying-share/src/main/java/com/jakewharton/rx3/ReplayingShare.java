@@ -15,15 +15,29 @@
  */
 package com.jakewharton.rx3;
 
+import io.reactivex.rxjava3.core.Completable;
 import io.reactivex.rxjava3.core.Flowable;
 import io.reactivex.rxjava3.core.FlowableTransformer;
 import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.core.ObservableTransformer;
 import io.reactivex.rxjava3.core.Observer;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.core.SingleObserver;
 import io.reactivex.rxjava3.annotations.NonNull;
 import io.reactivex.rxjava3.annotations.Nullable;
 import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.exceptions.MissingBackpressureException;
+import io.reactivex.rxjava3.functions.Action;
+import io.reactivex.rxjava3.functions.Function;
+import io.reactivex.rxjava3.functions.Supplier;
 import org.reactivestreams.Subscriber;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import org.reactivestreams.Subscription;
 
 /**
@@ -37,7 +51,7 @@ import org.reactivestreams.Subscription;
  */
 public final class ReplayingShare<T>
     implements ObservableTransformer<T, T>, FlowableTransformer<T, T> {
-  private static final ReplayingShare<Object> INSTANCE = new ReplayingShare<>(null);
+  private static final ReplayingShare<Object> INSTANCE = new Builder<>().build();
 
   /** The singleton instance of this transformer. */
   @NonNull
@@ -55,125 +69,972 @@ public final class ReplayingShare<T>
    */
   @NonNull
   public static <T> ReplayingShare<T> createWithDefault(@NonNull T defaultValue) {
-    if (defaultValue == null) throw new NullPointerException("defaultValue == null");
-    return new ReplayingShare<>(defaultValue);
+    return new Builder<T>().defaultValue(defaultValue).build();
+  }
+
+  /**
+   * Creates a `ReplayingShare` transformer which splits its subscribers across {@code shards}
+   * independent multicasts fed by the single upstream connection. Subscribing or unsubscribing
+   * only copies the subscribers of one shard. New subscribers are assigned to shards round-robin.
+   */
+  @NonNull
+  public static <T> ReplayingShare<T> createSharded(int shards) {
+    return new Builder<T>().sharded(shards).build();
+  }
+
+  /**
+   * Creates a `ReplayingShare` transformer which splits its subscribers across {@code shards}
+   * independent multicasts fed by the single upstream connection. Each shard delivers values to
+   * its subscribers on its own worker of {@code scheduler} allowing shards to fan out in parallel.
+   * Subscribing or unsubscribing only copies the subscribers of one shard. New subscribers are
+   * assigned to shards round-robin.
+   */
+  @NonNull
+  public static <T> ReplayingShare<T> createSharded(int shards, @NonNull Scheduler scheduler) {
+    return new Builder<T>().sharded(shards, scheduler).build();
+  }
+
+  /**
+   * Creates a `ReplayingShare` transformer which delivers values to subscribers at most once per
+   * {@code interval} using a single timer on {@code scheduler}, regardless of the number of
+   * subscribers. Only the most recent value of each interval is delivered. The cache is updated
+   * with every upstream value so that new subscribers always receive the freshest one. That value
+   * is not delivered to them again at the end of the interval.
+   */
+  @NonNull
+  public static <T> ReplayingShare<T> createThrottled(long interval, @NonNull TimeUnit unit,
+      @NonNull Scheduler scheduler) {
+    return new Builder<T>().throttled(interval, unit, scheduler).build();
+  }
+
+  /**
+   * Creates a `ReplayingShare` transformer whose {@link Flowable} subscribers each drop the values
+   * which arrive while they have no outstanding demand. A slow subscriber never holds back upstream
+   * demand for the others. The cached value is still replayed on the first request.
+   * <p>
+   * {@link Observable} streams are not affected since they have no backpressure.
+   */
+  @NonNull
+  public static <T> ReplayingShare<T> createDropping() {
+    return new Builder<T>().dropping().build();
+  }
+
+  /**
+   * Creates a `ReplayingShare` transformer whose {@link Flowable} subscribers each keep only the
+   * latest value which arrived while they had no outstanding demand and deliver it on their next
+   * request. A slow subscriber never holds back upstream demand for the others.
+   * <p>
+   * {@link Observable} streams are not affected since they have no backpressure.
+   */
+  @NonNull
+  public static <T> ReplayingShare<T> createKeepingLatest() {
+    return new Builder<T>().keepingLatest().build();
+  }
+
+  /**
+   * Creates a `ReplayingShare` transformer whose {@link Flowable} subscribers each buffer up to
+   * {@code capacity} values (including the replayed cached value) while they have no outstanding
+   * demand. A slow subscriber never holds back upstream demand for the others. When a subscriber's
+   * buffer overflows, {@code onOverflow} is invoked and only that subscriber is cancelled and
+   * receives a {@link MissingBackpressureException}.
+   * <p>
+   * {@link Observable} streams are not affected since they have no backpressure.
+   */
+  @NonNull
+  public static <T> ReplayingShare<T> createBuffering(int capacity, @NonNull Action onOverflow) {
+    return new Builder<T>().buffering(capacity, onOverflow).build();
+  }
+
+  /**
+   * Creates a `ReplayingShare` transformer which only weakly references its subscribers. A
+   * subscriber which is garbage collected without being disposed is removed from the stream the
+   * next time a value is emitted or a subscriber is added, and once only such subscribers remain
+   * the upstream is disconnected. The number of reclaimed subscribers is reported by
+   * {@link ReplayingShareState#reclaimedSubscribers()}.
+   * <p>
+   * Subscribers are kept alive by whoever holds their {@link Disposable} or {@link Subscription}.
+   * A subscriber whose handle is discarded will stop receiving values at an arbitrary point.
+   */
+  @NonNull
+  public static <T> ReplayingShare<T> createWeak() {
+    return new Builder<T>().weak().build();
+  }
+
+  /**
+   * Creates a `ReplayingShare` transformer whose {@link Observable} subscribers can be assigned a
+   * priority using {@link #withPriority(Observable, int)}. Each upstream value is delivered to
+   * subscribers with a higher priority before those with a lower one. Subscribers with equal
+   * priority, including all which subscribe directly with the default priority of 0, receive values
+   * in subscription order.
+   * <p>
+   * {@link Flowable} streams are shared normally.
+   */
+  @NonNull
+  public static <T> ReplayingShare<T> createPrioritized() {
+    return new Builder<T>().prioritized().build();
+  }
+
+  /**
+   * Creates a builder which combines the modes of the {@code create} factory methods, such as a
+   * default value and sharding, into a single transformer.
+   */
+  @NonNull
+  public static <T> Builder<T> builder() {
+    return new Builder<>();
+  }
+
+  /**
+   * Returns a {@link Single} which emits the first value of {@code shared}, a stream created by
+   * this transformer.
+   * <p>
+   * When {@code shared} is connected and has a cached value, subscribing emits that value directly
+   * without subscribing to {@code shared}. Otherwise it behaves like {@code shared.firstOrError()}.
+   * The returned instance can be reused.
+   *
+   * @throws IllegalArgumentException if {@code shared} was not created by this transformer.
+   */
+  @NonNull
+  public static <T> Single<T> firstOrCached(@NonNull Observable<T> shared) {
+    if (!(shared instanceof LastSeenObservable)) {
+      throw new IllegalArgumentException("Not a ReplayingShare stream: " + shared);
+    }
+    return ((LastSeenObservable<T>) shared).firstOrCached();
+  }
+
+  /**
+   * Returns a {@link Single} which emits the first value of {@code shared}, a stream created by
+   * this transformer.
+   * <p>
+   * When {@code shared} is connected and has a cached value, subscribing emits that value directly
+   * without subscribing to {@code shared}. Otherwise it behaves like {@code shared.firstOrError()}.
+   * The returned instance can be reused.
+   *
+   * @throws IllegalArgumentException if {@code shared} was not created by this transformer.
+   */
+  @NonNull
+  public static <T> Single<T> firstOrCached(@NonNull Flowable<T> shared) {
+    if (!(shared instanceof LastSeenFlowable)) {
+      throw new IllegalArgumentException("Not a ReplayingShare stream: " + shared);
+    }
+    return ((LastSeenFlowable<T>) shared).firstOrCached();
+  }
+
+  /**
+   * Returns a {@link Completable} which, when subscribed, connects {@code shared} (a stream created
+   * by this transformer) to its upstream so that the first value is cached before any subscriber
+   * needs it. The connection is held until the first upstream value arrives or until
+   * {@code timeout} elapses on {@code scheduler}, at which point the returned completable
+   * completes. If no one else has subscribed by then, upstream is disconnected as usual but the
+   * cached value is retained.
+   *
+   * @throws IllegalArgumentException if {@code shared} was not created by this transformer.
+   */
+  @NonNull
+  public static Completable prime(@NonNull Observable<?> shared, long timeout,
+      @NonNull TimeUnit unit, @NonNull Scheduler scheduler) {
+    if (!(shared instanceof LastSeenObservable)) {
+      throw new IllegalArgumentException("Not a ReplayingShare stream: " + shared);
+    }
+    if (unit == null) throw new NullPointerException("unit == null");
+    if (scheduler == null) throw new NullPointerException("scheduler == null");
+    return ((LastSeenObservable<?>) shared).prime(timeout, unit, scheduler);
+  }
+
+  /**
+   * Returns a {@link Completable} which, when subscribed, connects {@code shared} (a stream created
+   * by this transformer) to its upstream so that the first value is cached before any subscriber
+   * needs it. The connection is held until the first upstream value arrives or until
+   * {@code timeout} elapses on {@code scheduler}, at which point the returned completable
+   * completes. If no one else has subscribed by then, upstream is disconnected as usual but the
+   * cached value is retained.
+   *
+   * @throws IllegalArgumentException if {@code shared} was not created by this transformer.
+   */
+  @NonNull
+  public static Completable prime(@NonNull Flowable<?> shared, long timeout,
+      @NonNull TimeUnit unit, @NonNull Scheduler scheduler) {
+    if (!(shared instanceof LastSeenFlowable)) {
+      throw new IllegalArgumentException("Not a ReplayingShare stream: " + shared);
+    }
+    if (unit == null) throw new NullPointerException("unit == null");
+    if (scheduler == null) throw new NullPointerException("scheduler == null");
+    return ((LastSeenFlowable<?>) shared).prime(timeout, unit, scheduler);
+  }
+
+  /**
+   * Keeps {@code shared} (a stream created by this transformer) connected to its upstream, even
+   * when it has no other subscribers, until the returned handle is disposed. Use this to avoid
+   * reconnecting during known periods of subscriber churn. A terminal event from upstream also
+   * releases the pin.
+   *
+   * @throws IllegalArgumentException if {@code shared} was not created by this transformer.
+   */
+  @NonNull
+  public static Disposable pin(@NonNull Observable<?> shared) {
+    if (!(shared instanceof LastSeenObservable)) {
+      throw new IllegalArgumentException("Not a ReplayingShare stream: " + shared);
+    }
+    return shared.onErrorComplete().subscribe();
+  }
+
+  /**
+   * Keeps {@code shared} (a stream created by this transformer) connected to its upstream, even
+   * when it has no other subscribers, until the returned handle is disposed. Use this to avoid
+   * reconnecting during known periods of subscriber churn. A terminal event from upstream also
+   * releases the pin.
+   *
+   * @throws IllegalArgumentException if {@code shared} was not created by this transformer.
+   */
+  @NonNull
+  public static Disposable pin(@NonNull Flowable<?> shared) {
+    if (!(shared instanceof LastSeenFlowable)) {
+      throw new IllegalArgumentException("Not a ReplayingShare stream: " + shared);
+    }
+    return shared.onErrorComplete().subscribe();
+  }
+
+  /**
+   * Returns a view of {@code shared}, a stream created by {@link #createPrioritized()}, whose
+   * subscribers receive each value before subscribers with a lower {@code priority}. The cached
+   * value is still replayed immediately on subscribe.
+   *
+   * @throws IllegalArgumentException if {@code shared} was not created by
+   * {@link #createPrioritized()}.
+   */
+  @NonNull
+  public static <T> Observable<T> withPriority(@NonNull Observable<T> shared, int priority) {
+    if (!(shared instanceof LastSeenObservable)
+        || !((LastSeenObservable<T>) shared).isPrioritized()) {
+      throw new IllegalArgumentException("Not a prioritized ReplayingShare stream: " + shared);
+    }
+    return new PrioritizedObservable<>((LastSeenObservable<T>) shared, priority);
+  }
+
+  /**
+   * Combines the latest values of {@code sources} into a single stream which is itself shared
+   * using this transformer. The combination is computed once per upstream value regardless of the
+   * number of subscribers and the latest combined value is replayed to new subscribers.
+   * <p>
+   * Each source keeps its own last value cache so that reconnecting can produce a combined value
+   * as soon as every source replays. If the first combination after reconnecting has the same
+   * instances which were last combined before disconnecting, the combiner is not invoked again and
+   * nothing new is emitted. Every other combination is emitted, even when a source repeats a value.
+   * Sources which were already created by this transformer are used as-is.
+   */
+  @NonNull
+  public static <T, R> Observable<R> combine(
+      @NonNull Iterable<? extends Observable<? extends T>> sources,
+      @NonNull Function<? super Object[], ? extends R> combiner) {
+    if (sources == null) throw new NullPointerException("sources == null");
+    if (combiner == null) throw new NullPointerException("combiner == null");
+    List<Observable<? extends T>> shared = new ArrayList<>();
+    for (Observable<? extends T> source : sources) {
+      shared.add(source instanceof LastSeenObservable ? source : share(source));
+    }
+    CombineStore<R> store = new CombineStore<>(combiner);
+    return Observable.defer(new ObservableCombiner<>(shared, store))
+        .compose(ReplayingShare.<R>instance());
+  }
+
+  /**
+   * Combines the latest values of {@code sources} into a single stream which is itself shared
+   * using this transformer. The combination is computed once per upstream value regardless of the
+   * number of subscribers and the latest combined value is replayed to new subscribers.
+   * <p>
+   * Each source keeps its own last value cache so that reconnecting can produce a combined value
+   * as soon as every source replays. If the first combination after reconnecting has the same
+   * instances which were last combined before disconnecting, the combiner is not invoked again and
+   * nothing new is emitted. Every other combination is emitted, even when a source repeats a value.
+   * Sources which were already created by this transformer are used as-is.
+   * <p>
+   * This is the {@link Flowable} equivalent of {@link #combine(Iterable, Function)}.
+   */
+  @NonNull
+  public static <T, R> Flowable<R> combineFlowables(
+      @NonNull Iterable<? extends Flowable<? extends T>> sources,
+      @NonNull Function<? super Object[], ? extends R> combiner) {
+    if (sources == null) throw new NullPointerException("sources == null");
+    if (combiner == null) throw new NullPointerException("combiner == null");
+    List<Flowable<? extends T>> shared = new ArrayList<>();
+    for (Flowable<? extends T> source : sources) {
+      shared.add(source instanceof LastSeenFlowable ? source : share(source));
+    }
+    CombineStore<R> store = new CombineStore<>(combiner);
+    return Flowable.defer(new FlowableCombiner<>(shared, store))
+        .compose(ReplayingShare.<R>instance());
+  }
+
+  /**
+   * Returns a snapshot of the current state of {@code shared}, a stream created by this
+   * transformer. Reading the state does not synchronize with emissions.
+   *
+   * @throws IllegalArgumentException if {@code shared} was not created by this transformer.
+   */
+  @NonNull
+  public static ReplayingShareState state(@NonNull Observable<?> shared) {
+    return ReplayingShareState.of(lastSeen(shared));
+  }
+
+  /**
+   * Returns a snapshot of the current state of {@code shared}, a stream created by this
+   * transformer. Reading the state does not synchronize with emissions.
+   *
+   * @throws IllegalArgumentException if {@code shared} was not created by this transformer.
+   */
+  @NonNull
+  public static ReplayingShareState state(@NonNull Flowable<?> shared) {
+    return ReplayingShareState.of(lastSeen(shared));
+  }
+
+  static LastSeen<?> lastSeen(Observable<?> shared) {
+    if (!(shared instanceof LastSeenObservable)) {
+      throw new IllegalArgumentException("Not a ReplayingShare stream: " + shared);
+    }
+    return ((LastSeenObservable<?>) shared).lastSeen;
+  }
+
+  static LastSeen<?> lastSeen(Flowable<?> shared) {
+    if (!(shared instanceof LastSeenFlowable)) {
+      throw new IllegalArgumentException("Not a ReplayingShare stream: " + shared);
+    }
+    return ((LastSeenFlowable<?>) shared).lastSeen;
+  }
+
+  private static <T> Observable<T> share(Observable<T> source) {
+    return source.compose(ReplayingShare.<T>instance());
+  }
+
+  private static <T> Flowable<T> share(Flowable<T> source) {
+    return source.compose(ReplayingShare.<T>instance());
   }
 
   private final @Nullable T defaultValue;
+  private final int shards;
+  private final @Nullable Scheduler shardScheduler;
+  private final long sampleInterval;
+  private final @Nullable TimeUnit sampleUnit;
+  private final @Nullable Scheduler sampleScheduler;
+  private final @Nullable Overflow overflow;
+  private final boolean weak;
+  private final boolean prioritized;
+  private final boolean timed;
 
-  private ReplayingShare(@Nullable T defaultValue) {
-    this.defaultValue = defaultValue;
+  private ReplayingShare(Builder<T> builder) {
+    this.defaultValue = builder.defaultValue;
+    this.shards = builder.shards;
+    this.shardScheduler = builder.shardScheduler;
+    this.sampleInterval = builder.sampleInterval;
+    this.sampleUnit = builder.sampleUnit;
+    this.sampleScheduler = builder.sampleScheduler;
+    this.overflow = builder.overflow;
+    this.weak = builder.weak;
+    this.prioritized = builder.prioritized;
+    this.timed = builder.timed;
   }
 
   @Override public Observable<T> apply(Observable<T> upstream) {
-    LastSeen<T> lastSeen = new LastSeen<>(defaultValue);
-    return new LastSeenObservable<>(upstream.doOnEach(lastSeen).share(), lastSeen);
+    LastSeen<T> lastSeen = new LastSeen<>(defaultValue, timed);
+    Observable<T> cached = Observable.defer(new ObservableConnector<>(upstream, lastSeen));
+    TimeUnit sampleUnit = this.sampleUnit;
+    Scheduler sampleScheduler = this.sampleScheduler;
+    boolean sampled = sampleUnit != null && sampleScheduler != null;
+    if (sampled) {
+      cached = cached.sample(sampleInterval, sampleUnit, sampleScheduler, true);
+    }
+    Observable<T> shared = prioritized ? new PriorityObservable<>(cached) : cached.share();
+    if (shards > 1) {
+      shared = shard(shared);
+    }
+    // A sampled stream's next tick usually repeats the value a subscriber was just replayed.
+    return new LastSeenObservable<>(shared, lastSeen, weak ? new Reclaimer(lastSeen) : null,
+        sampled);
   }
 
   @Override public Flowable<T> apply(Flowable<T> upstream) {
-    LastSeen<T> lastSeen = new LastSeen<>(defaultValue);
-    return new LastSeenFlowable<>(upstream.doOnEach(lastSeen).share(), lastSeen);
+    LastSeen<T> lastSeen = new LastSeen<>(defaultValue, timed);
+    Flowable<T> cached = Flowable.defer(new FlowableConnector<>(upstream, lastSeen));
+    TimeUnit sampleUnit = this.sampleUnit;
+    Scheduler sampleScheduler = this.sampleScheduler;
+    boolean sampled = sampleUnit != null && sampleScheduler != null;
+    if (sampled) {
+      cached = cached.sample(sampleInterval, sampleUnit, sampleScheduler, true);
+    }
+    Flowable<T> shared = cached.share();
+    if (shards > 1) {
+      shared = shard(shared);
+    }
+    // A sampled stream's next tick usually repeats the value a subscriber was just replayed.
+    return new LastSeenFlowable<>(shared, lastSeen, overflow,
+        weak ? new Reclaimer(lastSeen) : null, sampled);
+  }
+
+  /** Routes subscribers to one of the shards, each of which shares {@code shared}. */
+  private Observable<T> shard(Observable<T> shared) {
+    int shards = this.shards;
+    Scheduler shardScheduler = this.shardScheduler;
+    @SuppressWarnings("unchecked") // Generic array creation.
+    Observable<T>[] shardArray = new Observable[shards];
+    ShardTracker[] trackers = new ShardTracker[shards];
+    for (int i = 0; i < shardArray.length; i++) {
+      Observable<T> shard = shared;
+      if (shardScheduler != null) {
+        ShardTracker tracker = new ShardTracker();
+        trackers[i] = tracker;
+        shard = Observable.defer(new ObservableShardConnector<>(shard, shardScheduler, tracker));
+      }
+      shardArray[i] = shard.share();
+    }
+    return new ShardedObservable<>(shardArray, shardScheduler != null ? trackers : null);
+  }
+
+  /** Routes subscribers to one of the shards, each of which shares {@code shared}. */
+  private Flowable<T> shard(Flowable<T> shared) {
+    int shards = this.shards;
+    Scheduler shardScheduler = this.shardScheduler;
+    @SuppressWarnings("unchecked") // Generic array creation.
+    Flowable<T>[] shardArray = new Flowable[shards];
+    ShardTracker[] trackers = new ShardTracker[shards];
+    for (int i = 0; i < shardArray.length; i++) {
+      Flowable<T> shard = shared;
+      if (shardScheduler != null) {
+        ShardTracker tracker = new ShardTracker();
+        trackers[i] = tracker;
+        shard = Flowable.defer(new FlowableShardConnector<>(shard, shardScheduler, tracker));
+      }
+      shardArray[i] = shard.share();
+    }
+    return new ShardedFlowable<>(shardArray, shardScheduler != null ? trackers : null);
+  }
+
+  /**
+   * Combines the modes of the {@code create} factory methods. Each method enables the mode of the
+   * factory it links to. Only one of the {@link Flowable} overflow strategies can be used, with
+   * the last one called taking effect.
+   */
+  public static final class Builder<T> {
+    @Nullable T defaultValue;
+    int shards = 1;
+    @Nullable Scheduler shardScheduler;
+    long sampleInterval;
+    @Nullable TimeUnit sampleUnit;
+    @Nullable Scheduler sampleScheduler;
+    @Nullable Overflow overflow;
+    boolean weak;
+    boolean prioritized;
+    boolean timed;
+
+    Builder() {
+    }
+
+    /** See {@link ReplayingShare#createWithDefault(Object)}. */
+    @NonNull
+    public Builder<T> defaultValue(@NonNull T defaultValue) {
+      if (defaultValue == null) throw new NullPointerException("defaultValue == null");
+      this.defaultValue = defaultValue;
+      return this;
+    }
+
+    /** See {@link ReplayingShare#createSharded(int)}. */
+    @NonNull
+    public Builder<T> sharded(int shards) {
+      if (shards <= 0) throw new IllegalArgumentException("shards <= 0: " + shards);
+      this.shards = shards;
+      this.shardScheduler = null;
+      return this;
+    }
+
+    /** See {@link ReplayingShare#createSharded(int, Scheduler)}. */
+    @NonNull
+    public Builder<T> sharded(int shards, @NonNull Scheduler scheduler) {
+      if (shards <= 0) throw new IllegalArgumentException("shards <= 0: " + shards);
+      if (scheduler == null) throw new NullPointerException("scheduler == null");
+      this.shards = shards;
+      this.shardScheduler = scheduler;
+      return this;
+    }
+
+    /** See {@link ReplayingShare#createThrottled(long, TimeUnit, Scheduler)}. */
+    @NonNull
+    public Builder<T> throttled(long interval, @NonNull TimeUnit unit,
+        @NonNull Scheduler scheduler) {
+      if (interval <= 0) throw new IllegalArgumentException("interval <= 0: " + interval);
+      if (unit == null) throw new NullPointerException("unit == null");
+      if (scheduler == null) throw new NullPointerException("scheduler == null");
+      this.sampleInterval = interval;
+      this.sampleUnit = unit;
+      this.sampleScheduler = scheduler;
+      return this;
+    }
+
+    /** See {@link ReplayingShare#createDropping()}. */
+    @NonNull
+    public Builder<T> dropping() {
+      overflow = new Overflow(Overflow.DROP, 0, null);
+      return this;
+    }
+
+    /** See {@link ReplayingShare#createKeepingLatest()}. */
+    @NonNull
+    public Builder<T> keepingLatest() {
+      overflow = new Overflow(Overflow.LATEST, 0, null);
+      return this;
+    }
+
+    /** See {@link ReplayingShare#createBuffering(int, Action)}. */
+    @NonNull
+    public Builder<T> buffering(int capacity, @NonNull Action onOverflow) {
+      if (capacity <= 0) throw new IllegalArgumentException("capacity <= 0: " + capacity);
+      if (onOverflow == null) throw new NullPointerException("onOverflow == null");
+      overflow = new Overflow(Overflow.BUFFER, capacity, onOverflow);
+      return this;
+    }
+
+    /** See {@link ReplayingShare#createWeak()}. */
+    @NonNull
+    public Builder<T> weak() {
+      weak = true;
+      return this;
+    }
+
+    /** See {@link ReplayingShare#createPrioritized()}. */
+    @NonNull
+    public Builder<T> prioritized() {
+      prioritized = true;
+      return this;
+    }
+
+    /**
+     * Record when each value is cached so that it is reported by
+     * {@link ReplayingShareState#valueAgeNanos()}. This reads the clock on every upstream value.
+     */
+    @NonNull
+    public Builder<T> recordValueAge() {
+      timed = true;
+      return this;
+    }
+
+    /**
+     * @throws IllegalStateException if the modes cannot be combined. Weak subscribers cannot use an
+     * overflow strategy and prioritized streams cannot be sharded.
+     */
+    @NonNull
+    public ReplayingShare<T> build() {
+      if (weak && overflow != null) {
+        throw new IllegalStateException("Weak subscribers cannot use an overflow strategy");
+      }
+      if (prioritized && shards > 1) {
+        throw new IllegalStateException("Prioritized streams cannot be sharded");
+      }
+      return new ReplayingShare<>(this);
+    }
   }
 
-  static final class LastSeen<T> implements Observer<T>, Subscriber<T> {
+  /**
+   * The cached value, held by the {@link Connection} of the upstream connection which is allowed
+   * to replace it. Each connection writes only to its own holder so that a write from a connection
+   * which has since been disposed can never overwrite the value of a newer one. Connecting,
+   * disconnecting, and terminating swap the current holder with a single CAS.
+   */
+  static final class LastSeen<T> {
+    @SuppressWarnings("rawtypes") // Updaters cannot be created for generic types.
+    private static final AtomicReferenceFieldUpdater<LastSeen, Connection> CURRENT =
+        AtomicReferenceFieldUpdater.newUpdater(LastSeen.class, Connection.class, "current");
+    @SuppressWarnings("rawtypes") // Updaters cannot be created for generic types.
+    private static final AtomicIntegerFieldUpdater<LastSeen> SUBSCRIBERS =
+        AtomicIntegerFieldUpdater.newUpdater(LastSeen.class, "subscribers");
+    @SuppressWarnings("rawtypes") // Updaters cannot be created for generic types.
+    private static final AtomicLongFieldUpdater<LastSeen> GENERATION =
+        AtomicLongFieldUpdater.newUpdater(LastSeen.class, "generation");
+    @SuppressWarnings("rawtypes") // Updaters cannot be created for generic types.
+    private static final AtomicLongFieldUpdater<LastSeen> RECLAIMED =
+        AtomicLongFieldUpdater.newUpdater(LastSeen.class, "reclaimed");
+
+    /** The generation of a holder which no upstream connection writes to. */
+    static final long DISCONNECTED = 0;
+
     private final @Nullable T defaultValue;
-    volatile @Nullable T value;
+    /** Whether {@link Connection#time} is recorded for {@link ReplayingShareState}. */
+    final boolean timed;
+    volatile Connection<T> current;
+    volatile int subscribers;
+    volatile long generation;
+    volatile long reclaimed;
 
     LastSeen(@Nullable T defaultValue) {
+      this(defaultValue, false);
+    }
+
+    LastSeen(@Nullable T defaultValue, boolean timed) {
       this.defaultValue = defaultValue;
-      value = defaultValue;
+      this.timed = timed;
+      current = new Connection<>(this, DISCONNECTED, defaultValue, timed ? System.nanoTime() : 0);
+    }
+
+    @Nullable T value() {
+      return current.value;
+    }
+
+    /**
+     * The cached value to replay to a new subscriber of {@code upstream}. A shard is told so that it
+     * can skip the values still queued for its worker which the replay supersedes.
+     */
+    @Nullable T replayValue(@Nullable Object upstream) {
+      if (upstream instanceof ShardReplay) {
+        ((ShardReplay) upstream).replaying();
+      }
+      return value();
+    }
+
+    /** The cached value if upstream is connected. */
+    @Nullable T connectedValue() {
+      Connection<T> current = this.current;
+      return current.generation != DISCONNECTED ? current.value : null;
+    }
+
+    void subscriberAdded() {
+      SUBSCRIBERS.incrementAndGet(this);
+    }
+
+    void subscriberRemoved() {
+      SUBSCRIBERS.decrementAndGet(this);
+    }
+
+    void subscriberReclaimed() {
+      RECLAIMED.incrementAndGet(this);
+    }
+
+    /** Start a new generation which supersedes all previous connections. */
+    Connection<T> connect() {
+      long generation = GENERATION.incrementAndGet(this);
+      while (true) {
+        Connection<T> current = this.current;
+        Connection<T> connection =
+            new Connection<>(this, generation, current.value, current.time);
+        if (CURRENT.compareAndSet(this, current, connection)) {
+          return connection;
+        }
+      }
+    }
+
+    void reset(Connection<T> connection) {
+      replace(connection, defaultValue, timed ? System.nanoTime() : 0);
+    }
+
+    void disconnect(Connection<T> connection) {
+      replace(connection, connection.value, connection.time);
+    }
+
+    /** Stop {@code connection} from writing to the cache if it is still the current one. */
+    private void replace(Connection<T> connection, @Nullable T value, long time) {
+      if (current == connection) {
+        CURRENT.compareAndSet(this, connection,
+            new Connection<>(this, DISCONNECTED, value, time));
+      }
+    }
+  }
+
+  /**
+   * Holds the cached value written by a single upstream connection. Only the holder which is
+   * {@linkplain LastSeen#current current} is read, so each value costs a single volatile write.
+   */
+  static final class Connection<T> implements Observer<T>, Subscriber<T>, Action {
+    private final LastSeen<T> lastSeen;
+    final long generation;
+    volatile @Nullable T value;
+    /** When {@link #value} was written, if {@link LastSeen#timed}. */
+    volatile long time;
+
+    Connection(LastSeen<T> lastSeen, long generation, @Nullable T value, long time) {
+      this.lastSeen = lastSeen;
+      this.generation = generation;
+      this.value = value;
+      this.time = time;
     }
 
     @Override public void onNext(T value) {
-        this.value = value;
+      this.value = value;
+      if (lastSeen.timed) {
+        time = System.nanoTime();
+      }
     }
 
     @Override public void onError(Throwable e) {
-      value = defaultValue;
+      lastSeen.reset(this);
     }
 
     @Override public void onComplete() {
-      value = defaultValue;
+      lastSeen.reset(this);
+    }
+
+    /** Called when this connection is disposed. */
+    @Override public void run() {
+      lastSeen.disconnect(this);
     }
 
     @Override public void onSubscribe(Subscription ignored) {}
     @Override public void onSubscribe(Disposable ignored) {}
   }
 
+  static final class ObservableConnector<T> implements Supplier<Observable<T>> {
+    private final Observable<T> upstream;
+    private final LastSeen<T> lastSeen;
+
+    ObservableConnector(Observable<T> upstream, LastSeen<T> lastSeen) {
+      this.upstream = upstream;
+      this.lastSeen = lastSeen;
+    }
+
+    @Override public Observable<T> get() {
+      Connection<T> connection = lastSeen.connect();
+      return upstream.doOnEach(connection).doOnDispose(connection);
+    }
+  }
+
+  static final class FlowableConnector<T> implements Supplier<Flowable<T>> {
+    private final Flowable<T> upstream;
+    private final LastSeen<T> lastSeen;
+
+    FlowableConnector(Flowable<T> upstream, LastSeen<T> lastSeen) {
+      this.upstream = upstream;
+      this.lastSeen = lastSeen;
+    }
+
+    @Override public Flowable<T> get() {
+      Connection<T> connection = lastSeen.connect();
+      return upstream.doOnEach(connection).doOnCancel(connection);
+    }
+  }
+
   static final class LastSeenObservable<T> extends Observable<T> {
     private final Observable<T> upstream;
     private final LastSeen<T> lastSeen;
+    private final @Nullable Reclaimer reclaimer;
+    /** Whether subscribers skip the first upstream value if it is the one they were replayed. */
+    private final boolean skipReplayed;
+    private @Nullable Single<T> firstOrCached;
 
     LastSeenObservable(Observable<T> upstream, LastSeen<T> lastSeen) {
+      this(upstream, lastSeen, null, false);
+    }
+
+    LastSeenObservable(Observable<T> upstream, LastSeen<T> lastSeen,
+        @Nullable Reclaimer reclaimer, boolean skipReplayed) {
       this.upstream = upstream;
       this.lastSeen = lastSeen;
+      this.reclaimer = reclaimer;
+      this.skipReplayed = skipReplayed;
+    }
+
+    Single<T> firstOrCached() {
+      // Racy single-check is fine since the instances are stateless.
+      Single<T> firstOrCached = this.firstOrCached;
+      if (firstOrCached == null) {
+        firstOrCached = new FirstOrCachedSingle<>(firstOrError(), lastSeen);
+        this.firstOrCached = firstOrCached;
+      }
+      return firstOrCached;
+    }
+
+    Completable prime(long timeout, TimeUnit unit, Scheduler scheduler) {
+      // Subscribe to upstream directly so that the cached value is not replayed.
+      return upstream.take(1).take(timeout, unit, scheduler).ignoreElements();
+    }
+
+    boolean isPrioritized() {
+      return upstream instanceof PriorityObservable;
+    }
+
+    void subscribe(Observer<? super T> observer, int priority) {
+      PriorityObservable<T> upstream = (PriorityObservable<T>) this.upstream;
+      Reclaimer reclaimer = this.reclaimer;
+      if (reclaimer != null) {
+        reclaimer.reclaim();
+        upstream.subscribe(new WeakObserver<>(observer, lastSeen, reclaimer, skipReplayed),
+            priority);
+      } else {
+        upstream.subscribe(new LastSeenObserver<>(observer, lastSeen, skipReplayed), priority);
+      }
     }
 
     @Override protected void subscribeActual(Observer<? super T> observer) {
-      upstream.subscribe(new LastSeenObserver<>(observer, lastSeen));
+      Reclaimer reclaimer = this.reclaimer;
+      if (reclaimer != null) {
+        reclaimer.reclaim();
+        upstream.subscribe(new WeakObserver<>(observer, lastSeen, reclaimer, skipReplayed));
+      } else {
+        upstream.subscribe(new LastSeenObserver<>(observer, lastSeen, skipReplayed));
+      }
     }
   }
 
-  static final class LastSeenObserver<T> implements Observer<T> {
+  static final class LastSeenObserver<T> implements Observer<T>, Disposable {
+    @SuppressWarnings("rawtypes") // Updaters cannot be created for generic types.
+    private static final AtomicIntegerFieldUpdater<LastSeenObserver> REMOVED =
+        AtomicIntegerFieldUpdater.newUpdater(LastSeenObserver.class, "removed");
+
     private final Observer<? super T> downstream;
     private final LastSeen<T> lastSeen;
+    private final boolean skipReplayed;
+
+    private @Nullable Disposable upstream;
+    @SuppressWarnings("UnusedVariable") // Accessed through REMOVED.
+    private volatile int removed;
+    /** The replayed value until the first upstream value, if {@link #skipReplayed}. */
+    private volatile @Nullable Object replayed;
 
-    LastSeenObserver(Observer<? super T> downstream, LastSeen<T> lastSeen) {
+    LastSeenObserver(Observer<? super T> downstream, LastSeen<T> lastSeen,
+        boolean skipReplayed) {
       this.downstream = downstream;
       this.lastSeen = lastSeen;
+      this.skipReplayed = skipReplayed;
     }
 
     @Override public void onSubscribe(Disposable d) {
-      downstream.onSubscribe(d);
+      upstream = d;
+      lastSeen.subscriberAdded();
+      downstream.onSubscribe(this);
 
-      T value = lastSeen.value;
+      T value = lastSeen.replayValue(d);
       if (value != null && !d.isDisposed()) {
+        if (skipReplayed) {
+          replayed = value;
+        }
         downstream.onNext(value);
       }
     }
 
     @Override public void onNext(T value) {
+      if (skipReplayed && isReplayed(value)) {
+        return;
+      }
       downstream.onNext(value);
     }
 
+    private boolean isReplayed(T value) {
+      Object replayed = this.replayed;
+      if (replayed == null) {
+        return false;
+      }
+      this.replayed = null;
+      return replayed == value;
+    }
+
     @Override public void onComplete() {
+      remove();
       downstream.onComplete();
     }
 
     @Override public void onError(Throwable e) {
+      remove();
       downstream.onError(e);
     }
+
+    @Override public void dispose() {
+      Disposable upstream = this.upstream;
+      assert upstream != null;
+      remove();
+      upstream.dispose();
+    }
+
+    @Override public boolean isDisposed() {
+      Disposable upstream = this.upstream;
+      assert upstream != null;
+      return upstream.isDisposed();
+    }
+
+    private void remove() {
+      if (REMOVED.compareAndSet(this, 0, 1)) {
+        lastSeen.subscriberRemoved();
+      }
+    }
   }
 
   static final class LastSeenFlowable<T> extends Flowable<T> {
     private final Flowable<T> upstream;
     private final LastSeen<T> lastSeen;
+    private final @Nullable Overflow overflow;
+    private final @Nullable Reclaimer reclaimer;
+    /** Whether subscribers skip the first upstream value if it is the one they were replayed. */
+    private final boolean skipReplayed;
+    private @Nullable Single<T> firstOrCached;
 
     LastSeenFlowable(Flowable<T> upstream, LastSeen<T> lastSeen) {
+      this(upstream, lastSeen, null, null, false);
+    }
+
+    LastSeenFlowable(Flowable<T> upstream, LastSeen<T> lastSeen, @Nullable Overflow overflow,
+        @Nullable Reclaimer reclaimer, boolean skipReplayed) {
       this.upstream = upstream;
       this.lastSeen = lastSeen;
+      this.overflow = overflow;
+      this.reclaimer = reclaimer;
+      this.skipReplayed = skipReplayed;
+    }
+
+    Single<T> firstOrCached() {
+      // Racy single-check is fine since the instances are stateless.
+      Single<T> firstOrCached = this.firstOrCached;
+      if (firstOrCached == null) {
+        firstOrCached = new FirstOrCachedSingle<>(firstOrError(), lastSeen);
+        this.firstOrCached = firstOrCached;
+      }
+      return firstOrCached;
+    }
+
+    Completable prime(long timeout, TimeUnit unit, Scheduler scheduler) {
+      // Subscribe to upstream directly so that the cached value is not replayed.
+      return upstream.take(1).take(timeout, unit, scheduler).ignoreElements();
     }
 
     @Override protected void subscribeActual(Subscriber<? super T> subscriber) {
-      upstream.subscribe(new LastSeenSubscriber<>(subscriber, lastSeen));
+      Overflow overflow = this.overflow;
+      Reclaimer reclaimer = this.reclaimer;
+      if (reclaimer != null) {
+        reclaimer.reclaim();
+        subscribeUpstream(new WeakSubscriber<>(subscriber, lastSeen, reclaimer, skipReplayed));
+      } else if (overflow != null) {
+        subscribeUpstream(new OverflowSubscriber<>(subscriber, lastSeen, overflow, skipReplayed));
+      } else {
+        subscribeUpstream(new LastSeenSubscriber<>(subscriber, lastSeen, skipReplayed));
+      }
+    }
+
+    private void subscribeUpstream(Subscriber<T> subscriber) {
+      if (upstream instanceof ShardedFlowable) {
+        ((ShardedFlowable<T>) upstream).subscribeShard(subscriber);
+      } else {
+        upstream.subscribe(subscriber);
+      }
     }
   }
 
   static final class LastSeenSubscriber<T> implements Subscriber<T>, Subscription {
+    @SuppressWarnings("rawtypes") // Updaters cannot be created for generic types.
+    private static final AtomicIntegerFieldUpdater<LastSeenSubscriber> REMOVED =
+        AtomicIntegerFieldUpdater.newUpdater(LastSeenSubscriber.class, "removed");
+
     private final Subscriber<? super T> downstream;
     private final LastSeen<T> lastSeen;
+    private final boolean skipReplayed;
 
     private @Nullable Subscription subscription;
     private volatile boolean cancelled;
+    @SuppressWarnings("UnusedVariable") // Accessed through REMOVED.
+    private volatile int removed;
     private boolean first = true;
+    /** The replayed value until the first upstream value, if {@link #skipReplayed}. */
+    private volatile @Nullable Object replayed;
 
-    LastSeenSubscriber(Subscriber<? super T> downstream, LastSeen<T> lastSeen) {
+    LastSeenSubscriber(Subscriber<? super T> downstream, LastSeen<T> lastSeen,
+        boolean skipReplayed) {
       this.downstream = downstream;
       this.lastSeen = lastSeen;
+      this.skipReplayed = skipReplayed;
     }
 
     @Override public void onSubscribe(Subscription subscription) {
       this.subscription = subscription;
+      lastSeen.subscriberAdded();
       downstream.onSubscribe(this);
     }
 
@@ -183,8 +1044,11 @@ public final class ReplayingShare<T>
       if (first) {
         first = false;
 
-        T value = lastSeen.value;
+        T value = lastSeen.replayValue(subscription);
         if (value != null && !cancelled) {
+          if (skipReplayed) {
+            replayed = value;
+          }
           downstream.onNext(value);
 
           if (amount != Long.MAX_VALUE && --amount == 0) {
@@ -201,19 +1065,64 @@ public final class ReplayingShare<T>
       Subscription subscription = this.subscription;
       assert subscription != null;
       cancelled = true;
+      remove();
       subscription.cancel();
     }
 
     @Override public void onNext(T value) {
+      if (skipReplayed && isReplayed(value)) {
+        // Replace the demand used by the skipped value.
+        Subscription subscription = this.subscription;
+        assert subscription != null;
+        subscription.request(1);
+        return;
+      }
       downstream.onNext(value);
     }
 
+    private boolean isReplayed(T value) {
+      Object replayed = this.replayed;
+      if (replayed == null) {
+        return false;
+      }
+      this.replayed = null;
+      return replayed == value;
+    }
+
     @Override public void onComplete() {
+      remove();
       downstream.onComplete();
     }
 
     @Override public void onError(Throwable t) {
+      remove();
       downstream.onError(t);
     }
+
+    private void remove() {
+      if (REMOVED.compareAndSet(this, 0, 1)) {
+        lastSeen.subscriberRemoved();
+      }
+    }
+  }
+
+  static final class FirstOrCachedSingle<T> extends Single<T> {
+    private final Single<T> upstream;
+    private final LastSeen<T> lastSeen;
+
+    FirstOrCachedSingle(Single<T> upstream, LastSeen<T> lastSeen) {
+      this.upstream = upstream;
+      this.lastSeen = lastSeen;
+    }
+
+    @Override protected void subscribeActual(SingleObserver<? super T> observer) {
+      T value = lastSeen.connectedValue();
+      if (value != null) {
+        observer.onSubscribe(Disposable.disposed());
+        observer.onSuccess(value);
+      } else {
+        upstream.subscribe(observer);
+      }
+    }
   }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import com.jakewharton.rx3.ReplayingShare.LastSeen;
+import io.reactivex.rxjava3.annotations.NonNull;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Observable;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A named collection of streams created by {@link ReplayingShare} whose {@linkplain
+ * ReplayingShareState state} can be enumerated, such as for export to JMX or an admin endpoint.
+ * <p>
+ * Streams are only weakly referenced and are removed once they are garbage collected.
+ */
+public final class ReplayingShareRegistry {
+  private final ConcurrentHashMap<String, WeakReference<LastSeen<?>>> entries =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Register {@code shared} under {@code name}, replacing any existing stream with that name.
+   *
+   * @throws IllegalArgumentException if {@code shared} was not created by {@link ReplayingShare}.
+   */
+  public void register(@NonNull String name, @NonNull Observable<?> shared) {
+    if (name == null) throw new NullPointerException("name == null");
+    entries.put(name, new WeakReference<LastSeen<?>>(ReplayingShare.lastSeen(shared)));
+  }
+
+  /**
+   * Register {@code shared} under {@code name}, replacing any existing stream with that name.
+   *
+   * @throws IllegalArgumentException if {@code shared} was not created by {@link ReplayingShare}.
+   */
+  public void register(@NonNull String name, @NonNull Flowable<?> shared) {
+    if (name == null) throw new NullPointerException("name == null");
+    entries.put(name, new WeakReference<LastSeen<?>>(ReplayingShare.lastSeen(shared)));
+  }
+
+  /** Remove the stream registered under {@code name}, if any. The stream itself is unaffected. */
+  public void unregister(@NonNull String name) {
+    if (name == null) throw new NullPointerException("name == null");
+    entries.remove(name);
+  }
+
+  /** Returns the current state of each live stream keyed by its name. */
+  @NonNull
+  public Map<String, ReplayingShareState> snapshot() {
+    Map<String, ReplayingShareState> states = new LinkedHashMap<>();
+    for (Map.Entry<String, WeakReference<LastSeen<?>>> entry : entries.entrySet()) {
+      LastSeen<?> lastSeen = entry.getValue().get();
+      if (lastSeen == null) {
+        entries.remove(entry.getKey(), entry.getValue());
+      } else {
+        states.put(entry.getKey(), ReplayingShareState.of(lastSeen));
+      }
+    }
+    return states;
+  }
+}
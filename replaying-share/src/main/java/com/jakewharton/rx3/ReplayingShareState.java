@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import com.jakewharton.rx3.ReplayingShare.Connection;
+import com.jakewharton.rx3.ReplayingShare.LastSeen;
+
+/**
+ * A read-only snapshot of the state of a stream created by {@link ReplayingShare}.
+ * <p>
+ * Each property is read independently from the live stream without synchronizing with its
+ * emissions so the snapshot may be slightly inconsistent if it changes while being taken.
+ *
+ * @see ReplayingShare#state(io.reactivex.rxjava3.core.Observable)
+ * @see ReplayingShareRegistry
+ */
+public final class ReplayingShareState {
+  static ReplayingShareState of(LastSeen<?> lastSeen) {
+    long now = System.nanoTime();
+    Connection<?> current = lastSeen.current;
+    boolean connected = current.generation != LastSeen.DISCONNECTED;
+    boolean hasValue = current.value != null;
+    long valueAgeNanos = hasValue && lastSeen.timed ? now - current.time : -1;
+    return new ReplayingShareState(connected, lastSeen.subscribers, hasValue, valueAgeNanos,
+        lastSeen.generation, lastSeen.reclaimed);
+  }
+
+  private final boolean connected;
+  private final int subscriberCount;
+  private final boolean hasValue;
+  private final long valueAgeNanos;
+  private final long generation;
+  private final long reclaimedSubscribers;
+
+  private ReplayingShareState(boolean connected, int subscriberCount, boolean hasValue,
+      long valueAgeNanos, long generation, long reclaimedSubscribers) {
+    this.connected = connected;
+    this.subscriberCount = subscriberCount;
+    this.hasValue = hasValue;
+    this.valueAgeNanos = valueAgeNanos;
+    this.generation = generation;
+    this.reclaimedSubscribers = reclaimedSubscribers;
+  }
+
+  /** True when the stream is connected to its upstream. */
+  public boolean isConnected() {
+    return connected;
+  }
+
+  /** The number of downstream subscribers. */
+  public int subscriberCount() {
+    return subscriberCount;
+  }
+
+  /** True when a value (including a default value) is cached for replay. */
+  public boolean hasValue() {
+    return hasValue;
+  }
+
+  /**
+   * Nanoseconds since the cached value was stored, or -1 if there is {@linkplain #hasValue() none}
+   * or the stream was not built with {@link ReplayingShare.Builder#recordValueAge()}.
+   */
+  public long valueAgeNanos() {
+    return valueAgeNanos;
+  }
+
+  /** The number of times the stream has connected to its upstream. */
+  public long generation() {
+    return generation;
+  }
+
+  /**
+   * The number of garbage collected subscribers which were removed from a stream created by
+   * {@link ReplayingShare#createWeak()}. Always 0 for other streams.
+   */
+  public long reclaimedSubscribers() {
+    return reclaimedSubscribers;
+  }
+
+  @Override public String toString() {
+    return "ReplayingShareState{connected="
+        + connected
+        + ", subscriberCount="
+        + subscriberCount
+        + ", hasValue="
+        + hasValue
+        + ", valueAgeNanos="
+        + valueAgeNanos
+        + ", generation="
+        + generation
+        + ", reclaimedSubscribers="
+        + reclaimedSubscribers
+        + '}';
+  }
+}
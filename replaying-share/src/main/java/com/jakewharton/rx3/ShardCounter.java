@@ -0,0 +1,31 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import io.reactivex.rxjava3.functions.Consumer;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+final class ShardCounter implements Consumer<Object> {
+  private static final AtomicLongFieldUpdater<ShardCounter> COUNT =
+      AtomicLongFieldUpdater.newUpdater(ShardCounter.class, "count");
+
+  volatile long count;
+
+  @Override public void accept(Object ignored) {
+    // Values are serialized so there is only ever one incrementing thread.
+    COUNT.lazySet(this, count + 1);
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import io.reactivex.rxjava3.annotations.Nullable;
+import io.reactivex.rxjava3.core.Observer;
+import io.reactivex.rxjava3.disposables.Disposable;
+
+final class ShardObserver<T> implements Observer<T>, Disposable, ShardReplay {
+  private final Observer<? super T> downstream;
+  private final ShardTracker tracker;
+
+  private @Nullable Disposable upstream;
+  /** Non-null until a value newer than the replayed one is delivered. */
+  private volatile @Nullable ShardProgress skipping;
+  private volatile long skipThrough;
+
+  ShardObserver(Observer<? super T> downstream, ShardTracker tracker) {
+    this.downstream = downstream;
+    this.tracker = tracker;
+  }
+
+  @Override public void replaying() {
+    ShardProgress progress = tracker.progress;
+    if (progress != null) {
+      skipThrough = progress.queued.count;
+      skipping = progress;
+    }
+  }
+
+  @Override public void onSubscribe(Disposable d) {
+    upstream = d;
+    downstream.onSubscribe(this);
+  }
+
+  @Override public void onNext(T value) {
+    if (skip()) {
+      return;
+    }
+    downstream.onNext(value);
+  }
+
+  /** True for values which are older than the replayed value. */
+  private boolean skip() {
+    ShardProgress skipping = this.skipping;
+    if (skipping != null) {
+      if (skipping == tracker.progress && skipping.delivered.count <= skipThrough) {
+        return true;
+      }
+      this.skipping = null;
+    }
+    return false;
+  }
+
+  @Override public void onComplete() {
+    downstream.onComplete();
+  }
+
+  @Override public void onError(Throwable e) {
+    downstream.onError(e);
+  }
+
+  @Override public void dispose() {
+    Disposable upstream = this.upstream;
+    assert upstream != null;
+    upstream.dispose();
+  }
+
+  @Override public boolean isDisposed() {
+    Disposable upstream = this.upstream;
+    assert upstream != null;
+    return upstream.isDisposed();
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import io.reactivex.rxjava3.annotations.Nullable;
+import io.reactivex.rxjava3.core.FlowableSubscriber;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+final class ShardSubscriber<T>
+    implements FlowableSubscriber<T>, Subscription, ShardReplay {
+  private final Subscriber<? super T> downstream;
+  private final ShardTracker tracker;
+
+  private @Nullable Subscription subscription;
+  /** Non-null until a value newer than the replayed one is delivered. */
+  private volatile @Nullable ShardProgress skipping;
+  private volatile long skipThrough;
+
+  ShardSubscriber(Subscriber<? super T> downstream, ShardTracker tracker) {
+    this.downstream = downstream;
+    this.tracker = tracker;
+  }
+
+  @Override public void replaying() {
+    ShardProgress progress = tracker.progress;
+    if (progress != null) {
+      skipThrough = progress.queued.count;
+      skipping = progress;
+    }
+  }
+
+  @Override public void onSubscribe(Subscription subscription) {
+    this.subscription = subscription;
+    downstream.onSubscribe(this);
+  }
+
+  @Override public void request(long amount) {
+    Subscription subscription = this.subscription;
+    assert subscription != null;
+    if (amount <= 0) {
+      // Normally reported by the strict wrapper which subscribeShard bypasses.
+      subscription.cancel();
+      downstream.onError(new IllegalArgumentException(
+          "§3.9 violated: positive request amount required but it was " + amount));
+      return;
+    }
+    subscription.request(amount);
+  }
+
+  @Override public void cancel() {
+    Subscription subscription = this.subscription;
+    assert subscription != null;
+    subscription.cancel();
+  }
+
+  @Override public void onNext(T value) {
+    if (skip()) {
+      // Replace the demand used by the skipped value.
+      Subscription subscription = this.subscription;
+      assert subscription != null;
+      subscription.request(1);
+      return;
+    }
+    downstream.onNext(value);
+  }
+
+  /** True for values which are older than the replayed value. */
+  private boolean skip() {
+    ShardProgress skipping = this.skipping;
+    if (skipping != null) {
+      if (skipping == tracker.progress && skipping.delivered.count <= skipThrough) {
+        return true;
+      }
+      this.skipping = null;
+    }
+    return false;
+  }
+
+  @Override public void onComplete() {
+    downstream.onComplete();
+  }
+
+  @Override public void onError(Throwable t) {
+    downstream.onError(t);
+  }
+}
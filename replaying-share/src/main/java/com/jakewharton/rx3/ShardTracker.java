@@ -0,0 +1,27 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import io.reactivex.rxjava3.annotations.Nullable;
+
+/**
+ * The progress of the current connection of a shard which delivers on its own worker. Values
+ * reach the cache before they are queued for the worker, so a subscriber which replays the cache
+ * must skip the values which were already queued for its shard when it read the cache.
+ */
+final class ShardTracker {
+  volatile @Nullable ShardProgress progress;
+}
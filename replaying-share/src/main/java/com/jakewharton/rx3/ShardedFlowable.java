@@ -0,0 +1,50 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import io.reactivex.rxjava3.annotations.Nullable;
+import io.reactivex.rxjava3.core.Flowable;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.reactivestreams.Subscriber;
+
+final class ShardedFlowable<T> extends Flowable<T> {
+  private final Flowable<T>[] shards;
+  private final @Nullable ShardTracker[] trackers;
+  private final AtomicInteger next = new AtomicInteger();
+
+  ShardedFlowable(Flowable<T>[] shards, @Nullable ShardTracker[] trackers) {
+    this.shards = shards;
+    this.trackers = trackers;
+  }
+
+  @Override protected void subscribeActual(Subscriber<? super T> subscriber) {
+    subscribeShard(subscriber);
+  }
+
+  /**
+   * Subscribes without the strict wrapper which {@link #subscribe(Subscriber)} applies to
+   * non-RxJava subscribers so that a {@link ShardReplay} is visible to {@code subscriber}.
+   */
+  void subscribeShard(Subscriber<? super T> subscriber) {
+    int index = (next.getAndIncrement() & Integer.MAX_VALUE) % shards.length;
+    ShardTracker[] trackers = this.trackers;
+    if (trackers != null) {
+      shards[index].subscribe(new ShardSubscriber<>(subscriber, trackers[index]));
+    } else {
+      shards[index].subscribe(subscriber);
+    }
+  }
+}
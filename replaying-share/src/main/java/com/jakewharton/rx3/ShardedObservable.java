@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import io.reactivex.rxjava3.annotations.Nullable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Observer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class ShardedObservable<T> extends Observable<T> {
+  private final Observable<T>[] shards;
+  private final @Nullable ShardTracker[] trackers;
+  private final AtomicInteger next = new AtomicInteger();
+
+  ShardedObservable(Observable<T>[] shards, @Nullable ShardTracker[] trackers) {
+    this.shards = shards;
+    this.trackers = trackers;
+  }
+
+  @Override protected void subscribeActual(Observer<? super T> observer) {
+    int index = (next.getAndIncrement() & Integer.MAX_VALUE) % shards.length;
+    ShardTracker[] trackers = this.trackers;
+    if (trackers != null) {
+      shards[index].subscribe(new ShardObserver<>(observer, trackers[index]));
+    } else {
+      shards[index].subscribe(observer);
+    }
+  }
+}
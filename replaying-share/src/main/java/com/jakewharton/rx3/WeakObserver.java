@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import com.jakewharton.rx3.ReplayingShare.LastSeen;
+import com.jakewharton.rx3.ReplayingShare.LastSeenObserver;
+import io.reactivex.rxjava3.annotations.Nullable;
+import io.reactivex.rxjava3.core.Observer;
+import io.reactivex.rxjava3.disposables.Disposable;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/** A {@link LastSeenObserver} which only weakly references its downstream. */
+final class WeakObserver<T> implements Observer<T>, Disposable, Reclaimable {
+  @SuppressWarnings("rawtypes") // Updaters cannot be created for generic types.
+  private static final AtomicIntegerFieldUpdater<WeakObserver> REMOVED =
+      AtomicIntegerFieldUpdater.newUpdater(WeakObserver.class, "removed");
+
+  private final DownstreamReference<Observer<? super T>> downstream;
+  private final LastSeen<T> lastSeen;
+  private final Reclaimer reclaimer;
+  private final boolean skipReplayed;
+  /**
+   * Holds the downstream strongly until it receives {@code onSubscribe}. A wrapper created around
+   * it by RxJava or an operator is not referenced by anything else before then.
+   */
+  private @Nullable Observer<? super T> pending;
+
+  private @Nullable Disposable upstream;
+  @SuppressWarnings("UnusedVariable") // Accessed through REMOVED.
+  private volatile int removed;
+  /** The replayed value until the first upstream value, if {@link #skipReplayed}. */
+  private volatile @Nullable Object replayed;
+
+  WeakObserver(Observer<? super T> downstream, LastSeen<T> lastSeen, Reclaimer reclaimer,
+      boolean skipReplayed) {
+    this.downstream = reclaimer.<Observer<? super T>>reference(downstream, this);
+    this.pending = downstream;
+    this.lastSeen = lastSeen;
+    this.reclaimer = reclaimer;
+    this.skipReplayed = skipReplayed;
+  }
+
+  @Override public void onSubscribe(Disposable d) {
+    upstream = d;
+    lastSeen.subscriberAdded();
+    Observer<? super T> downstream = pending;
+    pending = null;
+    assert downstream != null;
+    downstream.onSubscribe(this);
+
+    T value = lastSeen.replayValue(d);
+    if (value != null && !d.isDisposed()) {
+      if (skipReplayed) {
+        replayed = value;
+      }
+      downstream.onNext(value);
+    }
+  }
+
+  @Override public void onNext(T value) {
+    reclaimer.reclaim();
+    Observer<? super T> downstream = this.downstream.get();
+    if (downstream == null) {
+      reclaim();
+    } else if (!skipReplayed || !isReplayed(value)) {
+      downstream.onNext(value);
+    }
+  }
+
+  private boolean isReplayed(T value) {
+    Object replayed = this.replayed;
+    if (replayed == null) {
+      return false;
+    }
+    this.replayed = null;
+    return replayed == value;
+  }
+
+  @Override public void onComplete() {
+    remove();
+    Observer<? super T> downstream = this.downstream.get();
+    if (downstream != null) {
+      downstream.onComplete();
+    }
+  }
+
+  @Override public void onError(Throwable e) {
+    remove();
+    Observer<? super T> downstream = this.downstream.get();
+    if (downstream != null) {
+      downstream.onError(e);
+    }
+  }
+
+  @Override public void dispose() {
+    Disposable upstream = this.upstream;
+    assert upstream != null;
+    remove();
+    upstream.dispose();
+  }
+
+  @Override public boolean isDisposed() {
+    Disposable upstream = this.upstream;
+    assert upstream != null;
+    return upstream.isDisposed();
+  }
+
+  @Override public void reclaim() {
+    Disposable upstream = this.upstream;
+    if (remove()) {
+      reclaimer.reclaimed();
+    }
+    if (upstream != null) {
+      upstream.dispose();
+    }
+  }
+
+  private boolean remove() {
+    if (REMOVED.compareAndSet(this, 0, 1)) {
+      lastSeen.subscriberRemoved();
+      return true;
+    }
+    return false;
+  }
+}
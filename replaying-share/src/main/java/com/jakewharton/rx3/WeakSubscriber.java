@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import com.jakewharton.rx3.ReplayingShare.LastSeen;
+import com.jakewharton.rx3.ReplayingShare.LastSeenSubscriber;
+import io.reactivex.rxjava3.annotations.Nullable;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/** A {@link LastSeenSubscriber} which only weakly references its downstream. */
+final class WeakSubscriber<T> implements Subscriber<T>, Subscription, Reclaimable {
+  @SuppressWarnings("rawtypes") // Updaters cannot be created for generic types.
+  private static final AtomicIntegerFieldUpdater<WeakSubscriber> REMOVED =
+      AtomicIntegerFieldUpdater.newUpdater(WeakSubscriber.class, "removed");
+
+  private final DownstreamReference<Subscriber<? super T>> downstream;
+  private final LastSeen<T> lastSeen;
+  private final Reclaimer reclaimer;
+  private final boolean skipReplayed;
+  /**
+   * Holds the downstream strongly until it receives {@code onSubscribe}. A wrapper created around
+   * it by RxJava or an operator is not referenced by anything else before then.
+   */
+  private @Nullable Subscriber<? super T> pending;
+
+  private @Nullable Subscription subscription;
+  private volatile boolean cancelled;
+  @SuppressWarnings("UnusedVariable") // Accessed through REMOVED.
+  private volatile int removed;
+  private boolean first = true;
+  /** The replayed value until the first upstream value, if {@link #skipReplayed}. */
+  private volatile @Nullable Object replayed;
+
+  WeakSubscriber(Subscriber<? super T> downstream, LastSeen<T> lastSeen, Reclaimer reclaimer,
+      boolean skipReplayed) {
+    this.downstream = reclaimer.<Subscriber<? super T>>reference(downstream, this);
+    this.pending = downstream;
+    this.lastSeen = lastSeen;
+    this.reclaimer = reclaimer;
+    this.skipReplayed = skipReplayed;
+  }
+
+  @Override public void onSubscribe(Subscription subscription) {
+    this.subscription = subscription;
+    lastSeen.subscriberAdded();
+    Subscriber<? super T> downstream = pending;
+    pending = null;
+    assert downstream != null;
+    downstream.onSubscribe(this);
+  }
+
+  @Override public void request(long amount) {
+    if (amount == 0) return;
+
+    if (first) {
+      first = false;
+
+      T value = lastSeen.replayValue(subscription);
+      Subscriber<? super T> downstream = this.downstream.get();
+      if (value != null && downstream != null && !cancelled) {
+        if (skipReplayed) {
+          replayed = value;
+        }
+        downstream.onNext(value);
+
+        if (amount != Long.MAX_VALUE && --amount == 0) {
+          return;
+        }
+      }
+    }
+    Subscription subscription = this.subscription;
+    assert subscription != null;
+    subscription.request(amount);
+  }
+
+  @Override public void cancel() {
+    Subscription subscription = this.subscription;
+    assert subscription != null;
+    cancelled = true;
+    remove();
+    subscription.cancel();
+  }
+
+  @Override public void onNext(T value) {
+    reclaimer.reclaim();
+    Subscriber<? super T> downstream = this.downstream.get();
+    if (downstream == null) {
+      reclaim();
+    } else if (skipReplayed && isReplayed(value)) {
+      // Replace the demand used by the skipped value.
+      Subscription subscription = this.subscription;
+      assert subscription != null;
+      subscription.request(1);
+    } else {
+      downstream.onNext(value);
+    }
+  }
+
+  private boolean isReplayed(T value) {
+    Object replayed = this.replayed;
+    if (replayed == null) {
+      return false;
+    }
+    this.replayed = null;
+    return replayed == value;
+  }
+
+  @Override public void onComplete() {
+    remove();
+    Subscriber<? super T> downstream = this.downstream.get();
+    if (downstream != null) {
+      downstream.onComplete();
+    }
+  }
+
+  @Override public void onError(Throwable t) {
+    remove();
+    Subscriber<? super T> downstream = this.downstream.get();
+    if (downstream != null) {
+      downstream.onError(t);
+    }
+  }
+
+  @Override public void reclaim() {
+    Subscription subscription = this.subscription;
+    cancelled = true;
+    if (remove()) {
+      reclaimer.reclaimed();
+    }
+    if (subscription != null) {
+      subscription.cancel();
+    }
+  }
+
+  private boolean remove() {
+    if (REMOVED.compareAndSet(this, 0, 1)) {
+      lastSeen.subscriberRemoved();
+      return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import com.jakewharton.rx3.DeltaReplayingShare.Delta;
+import com.jakewharton.rx3.DeltaReplayingShare.Differ;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.annotations.Nullable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.functions.Action;
+import io.reactivex.rxjava3.functions.Consumer;
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.processors.PublishProcessor;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import io.reactivex.rxjava3.subscribers.TestSubscriber;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class DeltaReplayingShareTest {
+  /** Diffs two strings by returning the suffix appended to the previous one. */
+  private static final Differ<String, String> APPENDED = new Differ<String, String>() {
+    @Override public String diff(String previous, String next) {
+      return next.substring(previous.length());
+    }
+  };
+
+  @Test public void firstValueIsFull() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<Delta<String, String>> observable =
+        subject.compose(DeltaReplayingShare.create(APPENDED));
+
+    TestObserver<Delta<String, String>> observer = new TestObserver<>();
+    observable.subscribe(observer);
+    observer.assertNoValues();
+
+    subject.onNext("Foo");
+    assertFull("Foo", observer.values().get(0));
+  }
+
+  @Test public void connectedSubscribersReceiveDiffs() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<Delta<String, String>> observable =
+        subject.compose(DeltaReplayingShare.create(APPENDED));
+
+    TestObserver<Delta<String, String>> observer = new TestObserver<>();
+    observable.subscribe(observer);
+
+    subject.onNext("Foo");
+    subject.onNext("FooBar");
+    subject.onNext("FooBarBaz");
+
+    List<Delta<String, String>> values = observer.values();
+    assertEquals(3, values.size());
+    assertFull("Foo", values.get(0));
+    assertDiff("Bar", values.get(1));
+    assertDiff("Baz", values.get(2));
+  }
+
+  @Test public void lateSubscriberReceivesFullValue() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<Delta<String, String>> observable =
+        subject.compose(DeltaReplayingShare.create(APPENDED));
+
+    TestObserver<Delta<String, String>> observer1 = new TestObserver<>();
+    observable.subscribe(observer1);
+    subject.onNext("Foo");
+    subject.onNext("FooBar");
+
+    TestObserver<Delta<String, String>> observer2 = new TestObserver<>();
+    observable.subscribe(observer2);
+    assertFull("FooBar", observer2.values().get(0));
+
+    subject.onNext("FooBarBaz");
+    assertDiff("Baz", observer2.values().get(1));
+  }
+
+  @Test public void reconnectDiffsAgainstCachedValue() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<Delta<String, String>> observable =
+        subject.compose(DeltaReplayingShare.create(APPENDED));
+
+    TestObserver<Delta<String, String>> observer1 = new TestObserver<>();
+    observable.subscribe(observer1);
+    subject.onNext("Foo");
+    observer1.dispose();
+
+    TestObserver<Delta<String, String>> observer2 = new TestObserver<>();
+    observable.subscribe(observer2);
+    subject.onNext("FooBar");
+
+    List<Delta<String, String>> values = observer2.values();
+    assertEquals(2, values.size());
+    assertFull("Foo", values.get(0));
+    assertDiff("Bar", values.get(1));
+  }
+
+  @Test public void defaultValueIsFullAndDiffedAgainst() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<Delta<String, String>> observable =
+        subject.compose(DeltaReplayingShare.createWithDefault(APPENDED, "Foo"));
+
+    TestObserver<Delta<String, String>> observer = new TestObserver<>();
+    observable.subscribe(observer);
+    subject.onNext("FooBar");
+
+    List<Delta<String, String>> values = observer.values();
+    assertEquals(2, values.size());
+    assertFull("Foo", values.get(0));
+    assertDiff("Bar", values.get(1));
+  }
+
+  @Test public void completeClearsCache() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<Delta<String, String>> observable =
+        subject.compose(DeltaReplayingShare.create(APPENDED));
+
+    TestObserver<Delta<String, String>> observer1 = new TestObserver<>();
+    observable.subscribe(observer1);
+    subject.onNext("Foo");
+    subject.onComplete();
+    observer1.assertComplete();
+
+    TestObserver<Delta<String, String>> observer2 = new TestObserver<>();
+    observable.subscribe(observer2);
+    observer2.assertNoValues();
+  }
+
+  @Test public void flowableLateSubscriberReceivesFullValue() {
+    PublishProcessor<String> processor = PublishProcessor.create();
+    Flowable<Delta<String, String>> flowable =
+        processor.compose(DeltaReplayingShare.create(APPENDED));
+
+    TestSubscriber<Delta<String, String>> subscriber1 = new TestSubscriber<>();
+    flowable.subscribe(subscriber1);
+    processor.onNext("Foo");
+    processor.onNext("FooBar");
+    assertDiff("Bar", subscriber1.values().get(1));
+
+    TestSubscriber<Delta<String, String>> subscriber2 = new TestSubscriber<>();
+    flowable.subscribe(subscriber2);
+    assertFull("FooBar", subscriber2.values().get(0));
+
+    processor.onNext("FooBarBaz");
+    assertDiff("Baz", subscriber2.values().get(1));
+  }
+
+  @Test public void diffMissedWhileSubscribingIsReplacedByFullValue() {
+    final PublishSubject<String> subject = PublishSubject.create();
+    Observable<Delta<String, String>> observable =
+        subject.compose(DeltaReplayingShare.create(APPENDED));
+    TestObserver<Delta<String, String>> observer1 = observable.test();
+    subject.onNext("Foo");
+
+    // Emit from inside the replay, before the new subscriber is added to the multicast.
+    TestObserver<Delta<String, String>> observer2 = new TestObserver<Delta<String, String>>() {
+      @Override public void onNext(Delta<String, String> delta) {
+        super.onNext(delta);
+        if (delta.version() == 0) {
+          subject.onNext("FooBar");
+        }
+      }
+    };
+    observable.subscribe(observer2);
+    subject.onNext("FooBarBaz");
+
+    List<Delta<String, String>> values = observer2.values();
+    assertEquals(2, values.size());
+    assertFull("Foo", values.get(0));
+    assertFull("FooBarBaz", values.get(1));
+    assertEquals(2, values.get(1).version());
+
+    assertDiff("Bar", observer1.values().get(1));
+    assertDiff("Baz", observer1.values().get(2));
+  }
+
+  @SuppressWarnings("CheckReturnValue")
+  @Test public void concurrentSubscribersNeverApplyDiffToWrongBase() throws Exception {
+    final PublishSubject<String> subject = PublishSubject.create();
+    final Observable<Delta<String, String>> observable =
+        subject.compose(DeltaReplayingShare.create(APPENDED));
+    final AtomicReference<String> failure = new AtomicReference<>();
+    final AtomicBoolean done = new AtomicBoolean();
+    // Bound the number of live subscribers so that subscribing stays cheap.
+    final Semaphore live = new Semaphore(16);
+    observable.test();
+
+    Thread subscribers = new Thread(new Runnable() {
+      @Override public void run() {
+        try {
+          while (!done.get()) {
+            if (!live.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+              continue;
+            }
+            observable.take(3).doFinally(new Action() {
+              @Override public void run() {
+                live.release();
+              }
+            }).subscribe(new Consumer<Delta<String, String>>() {
+              private @Nullable String state;
+
+              @Override public void accept(Delta<String, String> delta) {
+                String state = this.state;
+                if (delta.isFull()) {
+                  state = delta.state();
+                } else if (state == null) {
+                  failure.compareAndSet(null, "Diff before full value: " + delta);
+                  return;
+                } else {
+                  state = state + delta.diff();
+                }
+                this.state = state;
+                // Every value is one character longer than the previous one.
+                if (state == null || state.length() != delta.version() + 1) {
+                  failure.compareAndSet(null, "Corrupt state " + state + " at " + delta);
+                }
+              }
+            });
+          }
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+      }
+    });
+    subscribers.start();
+
+    StringBuilder value = new StringBuilder();
+    for (int i = 0; i < 5_000; i++) {
+      subject.onNext(value.append('x').toString());
+    }
+    done.set(true);
+    subscribers.join();
+    assertNull(failure.get());
+  }
+
+  private static void assertFull(String expected, Delta<String, String> delta) {
+    assertTrue(delta.isFull());
+    assertEquals(expected, delta.state());
+    assertNull(delta.diff());
+  }
+
+  private static void assertDiff(String expected, Delta<String, String> delta) {
+    assertFalse(delta.isFull());
+    assertEquals(expected, delta.diff());
+    assertNull(delta.state());
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import com.jakewharton.rx3.MappedReplayingShare.Serializer;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Observer;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public final class MappedReplayingShareTest {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final Serializer<String> STRING = new Serializer<String>() {
+    @Override public void write(String value, ByteBuffer sink) {
+      sink.put(value.getBytes(UTF_8));
+    }
+
+    @Override public String read(ByteBuffer source) {
+      byte[] bytes = new byte[source.remaining()];
+      source.get(bytes);
+      return new String(bytes, UTF_8);
+    }
+  };
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final TestScheduler scheduler = new TestScheduler();
+
+  @Test public void readerReceivesPublishedValues() throws Exception {
+    File file = temporaryFolder.newFile();
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> published =
+        subject.compose(MappedReplayingShare.publisher(file, 64, STRING));
+    Observable<String> reader =
+        MappedReplayingShare.reader(file, STRING, 10, TimeUnit.MILLISECONDS, scheduler);
+
+    TestObserver<String> publishedObserver = published.test();
+    TestObserver<String> readerObserver = reader.test();
+    scheduler.triggerActions();
+    readerObserver.assertNoValues();
+
+    subject.onNext("Foo");
+    publishedObserver.assertValues("Foo");
+    scheduler.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+    readerObserver.assertValues("Foo");
+
+    scheduler.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+    readerObserver.assertValues("Foo");
+
+    subject.onNext("Bar");
+    scheduler.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+    readerObserver.assertValues("Foo", "Bar");
+  }
+
+  @SuppressWarnings("CheckReturnValue")
+  @Test public void newReaderSubscriberReceivesCurrentValue() throws Exception {
+    File file = temporaryFolder.newFile();
+    PublishSubject<String> subject = PublishSubject.create();
+    subject.compose(MappedReplayingShare.publisher(file, 64, STRING)).test();
+    subject.onNext("Foo");
+
+    Observable<String> reader =
+        MappedReplayingShare.reader(file, STRING, 10, TimeUnit.MILLISECONDS, scheduler);
+    TestObserver<String> readerObserver1 = reader.test();
+    scheduler.triggerActions();
+    readerObserver1.assertValues("Foo");
+
+    TestObserver<String> readerObserver2 = reader.test();
+    readerObserver2.assertValues("Foo");
+  }
+
+  @SuppressWarnings("CheckReturnValue")
+  @Test public void readerWaitsForFileToBeCreated() throws Exception {
+    File file = new File(temporaryFolder.getRoot(), "not-yet");
+    Observable<String> reader =
+        MappedReplayingShare.reader(file, STRING, 10, TimeUnit.MILLISECONDS, scheduler);
+    TestObserver<String> readerObserver = reader.test();
+    scheduler.triggerActions();
+    readerObserver.assertNoValues();
+    readerObserver.assertNoErrors();
+
+    PublishSubject<String> subject = PublishSubject.create();
+    subject.compose(MappedReplayingShare.publisher(file, 64, STRING)).test();
+    subject.onNext("Foo");
+
+    scheduler.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+    readerObserver.assertValues("Foo");
+  }
+
+  @SuppressWarnings("CheckReturnValue")
+  @Test public void completeClearsSlot() throws Exception {
+    File file = temporaryFolder.newFile();
+    PublishSubject<String> subject = PublishSubject.create();
+    subject.compose(MappedReplayingShare.publisher(file, 64, STRING)).test();
+    subject.onNext("Foo");
+    subject.onComplete();
+
+    TestObserver<String> readerObserver =
+        MappedReplayingShare.reader(file, STRING, 10, TimeUnit.MILLISECONDS, scheduler).test();
+    scheduler.triggerActions();
+    readerObserver.assertNoValues();
+  }
+
+  @SuppressWarnings("CheckReturnValue")
+  @Test public void readerCompletesWhenPublisherTerminates() throws Exception {
+    File file = temporaryFolder.newFile();
+    PublishSubject<String> subject = PublishSubject.create();
+    subject.compose(MappedReplayingShare.publisher(file, 64, STRING)).test();
+    Observable<String> reader =
+        MappedReplayingShare.reader(file, STRING, 10, TimeUnit.MILLISECONDS, scheduler);
+
+    TestObserver<String> readerObserver1 = reader.test();
+    subject.onNext("Foo");
+    scheduler.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+    readerObserver1.assertValues("Foo");
+
+    subject.onComplete();
+    scheduler.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+    readerObserver1.assertValues("Foo");
+    readerObserver1.assertComplete();
+
+    TestObserver<String> readerObserver2 = reader.test();
+    scheduler.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+    readerObserver2.assertNoValues();
+    readerObserver2.assertNotComplete();
+  }
+
+  @SuppressWarnings("CheckReturnValue")
+  @Test public void readDefersWriteLeftInProgressByDeadWriter() throws Throwable {
+    File file = temporaryFolder.newFile();
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(MappedSlot.HEADER_SIZE + 8);
+      raf.seek(MappedSlot.SEQUENCE_OFFSET);
+      raf.writeLong(3);
+      raf.seek(MappedSlot.CAPACITY_OFFSET);
+      raf.writeInt(8);
+    }
+    MappedSlot slot = MappedSlot.openReader(file);
+    assertNotNull(slot);
+    assertNull(slot.read(STRING));
+
+    PublishSubject<String> subject = PublishSubject.create();
+    subject.compose(MappedReplayingShare.publisher(file, 8, STRING)).test();
+    subject.onNext("Foo");
+    assertEquals("Foo", slot.read(STRING));
+  }
+
+  @Test public void staleConnectionDoesNotWriteSlot() throws Throwable {
+    File file = temporaryFolder.newFile();
+    final List<Observer<? super String>> connections = new ArrayList<>();
+    Observable<String> upstream = new Observable<String>() {
+      @Override protected void subscribeActual(Observer<? super String> observer) {
+        // Ignores disposal to simulate a connection which is still emitting.
+        observer.onSubscribe(Disposable.empty());
+        connections.add(observer);
+      }
+    };
+    Observable<String> published =
+        upstream.compose(MappedReplayingShare.publisher(file, 64, STRING));
+    MappedSlot slot = MappedSlot.openReader(file);
+    assertNotNull(slot);
+
+    published.test().dispose();
+    TestObserver<String> observer = published.test();
+    connections.get(0).onNext("Stale");
+    connections.get(1).onNext("Fresh");
+    assertEquals("Fresh", slot.read(STRING));
+
+    connections.get(0).onNext("Stale");
+    connections.get(0).onComplete();
+    assertNull(slot.read(STRING));
+    observer.assertValues("Fresh");
+  }
+
+  @SuppressWarnings("CheckReturnValue")
+  @Test public void publisherCanOnlyBeAppliedOnce() throws Exception {
+    MappedReplayingShare<String> transformer =
+        MappedReplayingShare.publisher(temporaryFolder.newFile(), 64, STRING);
+    Observable.<String>never().compose(transformer);
+    try {
+      Observable.<String>never().compose(transformer);
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test public void valueLargerThanCapacityErrors() throws Exception {
+    File file = temporaryFolder.newFile();
+    PublishSubject<String> subject = PublishSubject.create();
+    TestObserver<String> observer =
+        subject.compose(MappedReplayingShare.publisher(file, 2, STRING)).test();
+    subject.onNext("Foo");
+    observer.assertError(BufferOverflowException.class);
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import com.jakewharton.rx3.MappingReplayingShare.MapMemo;
+import com.jakewharton.rx3.MappingReplayingShare.MemoStore;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.functions.Function;
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.processors.PublishProcessor;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+import io.reactivex.rxjava3.subjects.BehaviorSubject;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import io.reactivex.rxjava3.subscribers.TestSubscriber;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public final class MappingReplayingShareTest {
+  private final List<String> mapped = new ArrayList<>();
+  private final Function<String, String> mapper = new Function<String, String>() {
+    @Override public String apply(String value) {
+      mapped.add(value);
+      return value.toUpperCase();
+    }
+  };
+
+  @Test public void mapsOncePerValue() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable = subject.compose(MappingReplayingShare.create(mapper));
+
+    TestObserver<String> observer1 = observable.test();
+    TestObserver<String> observer2 = observable.test();
+    subject.onNext("foo");
+    subject.onNext("foo");
+    subject.onNext("bar");
+    observer1.assertValues("FOO", "BAR");
+    observer2.assertValues("FOO", "BAR");
+    assertEquals(Arrays.asList("foo", "bar"), mapped);
+  }
+
+  @Test public void equalValueAfterReconnectIsNotMappedAgain() {
+    BehaviorSubject<String> subject = BehaviorSubject.createDefault("foo");
+    Observable<String> observable = subject.compose(MappingReplayingShare.create(mapper));
+
+    TestObserver<String> observer1 = observable.test();
+    observer1.assertValues("FOO");
+    observer1.dispose();
+
+    TestObserver<String> observer2 = observable.test();
+    observer2.assertValues("FOO");
+    assertEquals(Arrays.asList("foo"), mapped);
+
+    subject.onNext("bar");
+    observer2.assertValues("FOO", "BAR");
+    assertEquals(Arrays.asList("foo", "bar"), mapped);
+  }
+
+  @Test public void staleConnectionDoesNotOverwriteMemo() throws Throwable {
+    MemoStore<String, String> store = new MemoStore<>(mapper);
+    MapMemo<String, String> stale = store.connect();
+    assertEquals("FOO", stale.apply("foo"));
+
+    MapMemo<String, String> current = store.connect();
+    assertEquals("BAR", stale.apply("bar"));
+    stale.run();
+
+    assertEquals("FOO", current.apply("foo"));
+    assertFalse(current.test("FOO"));
+    MapMemo<String, String> next = store.connect();
+    assertEquals("FOO", next.apply("foo"));
+    assertFalse(next.test("FOO"));
+    assertEquals(Arrays.asList("foo", "bar"), mapped);
+  }
+
+  @Test public void completeClearsMemo() {
+    Observable<String> observable =
+        Observable.just("foo").compose(MappingReplayingShare.create(mapper));
+
+    observable.test().assertValues("FOO").assertComplete();
+    observable.test().assertValues("FOO").assertComplete();
+    assertEquals(Arrays.asList("foo", "foo"), mapped);
+  }
+
+  @Test public void schedulerMapsNewestPendingValue() {
+    TestScheduler scheduler = new TestScheduler();
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable =
+        subject.compose(MappingReplayingShare.create(mapper, scheduler));
+
+    TestObserver<String> observer = observable.test();
+    subject.onNext("foo");
+    subject.onNext("bar");
+    subject.onNext("baz");
+    observer.assertNoValues();
+
+    scheduler.triggerActions();
+    observer.assertValues("FOO", "BAZ");
+    assertEquals(Arrays.asList("foo", "baz"), mapped);
+  }
+
+  @Test public void flowableSchedulerMapsNewestPendingValue() {
+    TestScheduler scheduler = new TestScheduler();
+    PublishProcessor<String> processor = PublishProcessor.create();
+    Flowable<String> flowable =
+        processor.compose(MappingReplayingShare.create(mapper, scheduler));
+
+    TestSubscriber<String> subscriber1 = flowable.test();
+    processor.onNext("foo");
+    processor.onNext("bar");
+    processor.onNext("baz");
+    processor.onNext("baz");
+    scheduler.triggerActions();
+    subscriber1.assertValues("FOO", "BAZ");
+
+    TestSubscriber<String> subscriber2 = flowable.test();
+    subscriber2.assertValues("BAZ");
+    assertEquals(Arrays.asList("foo", "baz"), mapped);
+  }
+}
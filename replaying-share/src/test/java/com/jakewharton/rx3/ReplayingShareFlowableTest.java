@@ -15,18 +15,32 @@
  */
 package com.jakewharton.rx3;
 
+import com.jakewharton.rx3.ReplayingShare.LastSeen;
 import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.exceptions.MissingBackpressureException;
 import io.reactivex.rxjava3.functions.Action;
 import io.reactivex.rxjava3.functions.Consumer;
+import io.reactivex.rxjava3.functions.Function;
+import io.reactivex.rxjava3.internal.subscriptions.BooleanSubscription;
+import io.reactivex.rxjava3.observers.TestObserver;
 import io.reactivex.rxjava3.processors.PublishProcessor;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
 import io.reactivex.rxjava3.subscribers.TestSubscriber;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Test;
+import org.reactivestreams.Subscriber;
 import org.reactivestreams.Subscription;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public final class ReplayingShareFlowableTest {
@@ -338,4 +352,512 @@ public final class ReplayingShareFlowableTest {
     replayed.subscribe(observer3);
     observer3.assertValues("default", "initB");
   }
+
+  @Test public void firstOrCachedReturnsCachedValueWhenConnected() {
+    PublishProcessor<String> subject = PublishProcessor.create();
+    final AtomicInteger count = new AtomicInteger();
+    Flowable<String> flowable = subject.compose(ReplayingShare.<String>instance());
+    Flowable<String> counted = flowable.doOnSubscribe(new Consumer<Subscription>() {
+      @Override public void accept(Subscription subscription) {
+        count.incrementAndGet();
+      }
+    });
+
+    TestSubscriber<String> subscriber = counted.test();
+    subject.onNext("Foo");
+    assertEquals(1, count.get());
+
+    ReplayingShare.firstOrCached(flowable).test().assertResult("Foo");
+    assertEquals(1, count.get());
+    subscriber.cancel();
+  }
+
+  @Test public void firstOrCachedSubscribesWhenEmpty() {
+    PublishProcessor<String> subject = PublishProcessor.create();
+    Flowable<String> flowable = subject.compose(ReplayingShare.<String>instance());
+
+    TestObserver<String> observer = ReplayingShare.firstOrCached(flowable).test();
+    observer.assertNoValues();
+
+    subject.onNext("Foo");
+    observer.assertResult("Foo");
+    assertFalse(subject.hasSubscribers());
+  }
+
+  @Test public void firstOrCachedSubscribesWhenDisconnected() {
+    PublishProcessor<String> subject = PublishProcessor.create();
+    Flowable<String> flowable = subject.compose(ReplayingShare.<String>instance());
+
+    TestSubscriber<String> subscriber = flowable.test();
+    subject.onNext("Foo");
+    subscriber.cancel();
+    assertFalse(subject.hasSubscribers());
+
+    ReplayingShare.firstOrCached(flowable).test().assertResult("Foo");
+    assertFalse(subject.hasSubscribers());
+  }
+
+  @SuppressWarnings("CheckReturnValue")
+  @Test public void firstOrCachedRejectsOtherStreams() {
+    try {
+      ReplayingShare.firstOrCached(Flowable.just("Foo"));
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void shardedRefCountToUpstream() {
+    PublishProcessor<String> subject = PublishProcessor.create();
+
+    final AtomicInteger count = new AtomicInteger();
+    Flowable<String> flowable = subject //
+        .doOnSubscribe(new Consumer<Subscription>() {
+          @Override public void accept(Subscription subscription) {
+            count.incrementAndGet();
+          }
+        }) //
+        .doOnCancel(new Action() {
+          @Override public void run() {
+            count.decrementAndGet();
+          }
+        }) //
+        .compose(ReplayingShare.<String>createSharded(2));
+
+    List<TestSubscriber<String>> subscribers = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      subscribers.add(flowable.test());
+      assertEquals(1, count.get());
+    }
+
+    subject.onNext("Foo");
+    for (TestSubscriber<String> subscriber : subscribers) {
+      subscriber.assertValues("Foo");
+    }
+
+    for (TestSubscriber<String> subscriber : subscribers) {
+      assertEquals(1, count.get());
+      subscriber.cancel();
+    }
+    assertEquals(0, count.get());
+  }
+
+  @Test public void shardedDeliversOnScheduler() {
+    TestScheduler scheduler = new TestScheduler();
+    PublishProcessor<String> subject = PublishProcessor.create();
+    Flowable<String> flowable =
+        subject.compose(ReplayingShare.<String>createSharded(2, scheduler));
+
+    TestSubscriber<String> subscriber1 = flowable.test();
+    TestSubscriber<String> subscriber2 = flowable.test();
+
+    subject.onNext("Foo");
+    subscriber1.assertNoValues();
+    subscriber2.assertNoValues();
+
+    scheduler.triggerActions();
+    subscriber1.assertValues("Foo");
+    subscriber2.assertValues("Foo");
+
+    TestSubscriber<String> subscriber3 = flowable.test(2);
+    subscriber3.assertValues("Foo");
+  }
+
+  @Test public void shardedReplayIsNotFollowedByOlderQueuedValues() {
+    TestScheduler scheduler = new TestScheduler();
+    PublishProcessor<String> subject = PublishProcessor.create();
+    Flowable<String> flowable =
+        subject.compose(ReplayingShare.<String>createSharded(2, scheduler));
+
+    TestSubscriber<String> subscriber1 = flowable.test();
+    TestSubscriber<String> subscriber2 = flowable.test();
+    subject.onNext("A");
+    subject.onNext("B");
+
+    TestSubscriber<String> subscriber3 = flowable.test(2);
+    subscriber3.assertValues("B");
+
+    scheduler.triggerActions();
+    subscriber1.assertValues("A", "B");
+    subscriber2.assertValues("A", "B");
+    subscriber3.assertValues("B");
+
+    subject.onNext("C");
+    scheduler.triggerActions();
+    subscriber3.assertValues("B", "C");
+  }
+
+  @Test public void builderCombinesDefaultValueAndOverflow() {
+    PublishProcessor<String> subject = PublishProcessor.create();
+    Flowable<String> flowable = subject.compose(ReplayingShare.<String>builder()
+        .defaultValue("default")
+        .keepingLatest()
+        .build());
+
+    TestSubscriber<String> subscriber1 = flowable.test(1);
+    TestSubscriber<String> subscriber2 = flowable.test();
+    subscriber1.assertValues("default");
+    subscriber2.assertValues("default");
+
+    subject.onNext("Foo");
+    subject.onNext("Bar");
+    subscriber1.assertValues("default");
+    subscriber2.assertValues("default", "Foo", "Bar");
+
+    subscriber1.request(1);
+    subscriber1.assertValues("default", "Bar");
+  }
+
+  @Test public void primeConnectsUntilFirstValue() {
+    TestScheduler scheduler = new TestScheduler();
+    PublishProcessor<String> subject = PublishProcessor.create();
+    Flowable<String> flowable = subject.compose(ReplayingShare.<String>instance());
+
+    TestObserver<Void> prime =
+        ReplayingShare.prime(flowable, 1, TimeUnit.SECONDS, scheduler).test();
+    assertTrue(subject.hasSubscribers());
+    prime.assertNotComplete();
+
+    subject.onNext("Foo");
+    prime.assertComplete();
+    assertFalse(subject.hasSubscribers());
+
+    flowable.test().assertValues("Foo");
+  }
+
+  @Test public void primeDisconnectsAfterTimeout() {
+    TestScheduler scheduler = new TestScheduler();
+    PublishProcessor<String> subject = PublishProcessor.create();
+    Flowable<String> flowable = subject.compose(ReplayingShare.<String>instance());
+
+    TestObserver<Void> prime =
+        ReplayingShare.prime(flowable, 1, TimeUnit.SECONDS, scheduler).test();
+    assertTrue(subject.hasSubscribers());
+
+    scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+    prime.assertComplete();
+    assertFalse(subject.hasSubscribers());
+  }
+
+  @Test public void pinKeepsUpstreamConnected() {
+    PublishProcessor<String> subject = PublishProcessor.create();
+    Flowable<String> flowable = subject.compose(ReplayingShare.<String>instance());
+
+    Disposable pin = ReplayingShare.pin(flowable);
+    assertTrue(subject.hasSubscribers());
+
+    TestSubscriber<String> subscriber1 = flowable.test();
+    subscriber1.cancel();
+    assertTrue(subject.hasSubscribers());
+
+    subject.onNext("Foo");
+    TestSubscriber<String> subscriber2 = flowable.test();
+    subscriber2.assertValues("Foo");
+    subscriber2.cancel();
+    assertTrue(subject.hasSubscribers());
+
+    pin.dispose();
+    assertFalse(subject.hasSubscribers());
+  }
+
+  @Test public void combineComputesOncePerValue() {
+    PublishProcessor<String> subjectA = PublishProcessor.create();
+    PublishProcessor<String> subjectB = PublishProcessor.create();
+    final AtomicInteger count = new AtomicInteger();
+    Flowable<String> combined = ReplayingShare.combineFlowables(Arrays.asList(subjectA, subjectB),
+        new Function<Object[], String>() {
+          @Override public String apply(Object[] values) {
+            count.incrementAndGet();
+            return values[0] + "+" + values[1];
+          }
+        });
+
+    TestSubscriber<String> subscriber1 = combined.test();
+    TestSubscriber<String> subscriber2 = combined.test();
+
+    subjectA.onNext("Foo");
+    subjectB.onNext("Bar");
+    subscriber1.assertValues("Foo+Bar");
+    subscriber2.assertValues("Foo+Bar");
+    assertEquals(1, count.get());
+
+    TestSubscriber<String> subscriber3 = combined.test();
+    subscriber3.assertValues("Foo+Bar");
+    assertEquals(1, count.get());
+  }
+
+  @Test public void throttledDeliversLatestPerInterval() {
+    TestScheduler scheduler = new TestScheduler();
+    PublishProcessor<String> subject = PublishProcessor.create();
+    Flowable<String> flowable =
+        subject.compose(ReplayingShare.<String>createThrottled(1, TimeUnit.SECONDS, scheduler));
+
+    TestSubscriber<String> subscriber1 = flowable.test();
+    TestSubscriber<String> subscriber2 = flowable.test();
+    subject.onNext("Foo");
+    subject.onNext("Bar");
+    subscriber1.assertNoValues();
+
+    scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+    subscriber1.assertValues("Bar");
+    subscriber2.assertValues("Bar");
+
+    subject.onNext("Baz");
+    TestSubscriber<String> subscriber3 = flowable.test(2);
+    subscriber3.assertValues("Baz");
+  }
+
+  @Test public void throttledTickDoesNotRepeatReplayedValue() {
+    TestScheduler scheduler = new TestScheduler();
+    PublishProcessor<String> subject = PublishProcessor.create();
+    Flowable<String> flowable =
+        subject.compose(ReplayingShare.<String>createThrottled(1, TimeUnit.SECONDS, scheduler));
+
+    TestSubscriber<String> subscriber1 = flowable.test();
+    subject.onNext("Foo");
+    TestSubscriber<String> subscriber2 = flowable.test(2);
+    subscriber2.assertValues("Foo");
+
+    scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+    subscriber1.assertValues("Foo");
+    subscriber2.assertValues("Foo");
+
+    subject.onNext("Bar");
+    scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+    subscriber1.assertValues("Foo", "Bar");
+    subscriber2.assertValues("Foo", "Bar");
+  }
+
+  @Test public void throttledOverflowTickDoesNotRepeatReplayedValue() {
+    TestScheduler scheduler = new TestScheduler();
+    PublishProcessor<String> subject = PublishProcessor.create();
+    Flowable<String> flowable = subject.compose(ReplayingShare.<String>builder()
+        .throttled(1, TimeUnit.SECONDS, scheduler)
+        .keepingLatest()
+        .build());
+
+    TestSubscriber<String> subscriber1 = flowable.test();
+    subject.onNext("Foo");
+    TestSubscriber<String> subscriber2 = flowable.test();
+    subscriber2.assertValues("Foo");
+
+    scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+    subscriber1.assertValues("Foo");
+    subscriber2.assertValues("Foo");
+  }
+
+  @Test public void stateReflectsLifecycle() {
+    PublishProcessor<String> subject = PublishProcessor.create();
+    Flowable<String> flowable = subject.compose(ReplayingShare.<String>instance());
+
+    ReplayingShareState state = ReplayingShare.state(flowable);
+    assertFalse(state.isConnected());
+    assertEquals(0, state.subscriberCount());
+    assertFalse(state.hasValue());
+
+    TestSubscriber<String> subscriber = flowable.test();
+    subject.onNext("Foo");
+    state = ReplayingShare.state(flowable);
+    assertTrue(state.isConnected());
+    assertEquals(1, state.subscriberCount());
+    assertTrue(state.hasValue());
+    assertEquals(1, state.generation());
+
+    subscriber.cancel();
+    state = ReplayingShare.state(flowable);
+    assertFalse(state.isConnected());
+    assertEquals(0, state.subscriberCount());
+    assertTrue(state.hasValue());
+  }
+
+  @Test public void staleConnectionCannotOverwriteCache() {
+    final List<Subscriber<? super String>> connections = new ArrayList<>();
+    Flowable<String> upstream = new Flowable<String>() {
+      @Override protected void subscribeActual(Subscriber<? super String> subscriber) {
+        subscriber.onSubscribe(new Subscription() {
+          @Override public void request(long n) {}
+          @Override public void cancel() {}
+        });
+        connections.add(subscriber);
+      }
+    };
+    Flowable<String> flowable = upstream.compose(ReplayingShare.<String>instance());
+
+    TestSubscriber<String> subscriber1 = flowable.test();
+    connections.get(0).onNext("Foo");
+    subscriber1.cancel();
+
+    TestSubscriber<String> subscriber2 = flowable.test();
+    connections.get(1).onNext("Bar");
+    // A misbehaving source keeps emitting on the connection which was already canceled.
+    connections.get(0).onNext("Stale");
+    connections.get(0).onComplete();
+    subscriber2.assertValues("Foo", "Bar");
+
+    TestSubscriber<String> subscriber3 = flowable.test(2);
+    subscriber3.assertValues("Bar");
+  }
+
+  @Test public void droppingDoesNotHoldBackOtherSubscribers() {
+    PublishProcessor<String> subject = PublishProcessor.create();
+    Flowable<String> flowable = subject.compose(ReplayingShare.<String>createDropping());
+
+    TestSubscriber<String> fast = flowable.test();
+    TestSubscriber<String> slow = flowable.test(0);
+    subject.onNext("Foo");
+    subject.onNext("Bar");
+    fast.assertValues("Foo", "Bar");
+    slow.assertNoValues();
+
+    slow.request(2);
+    slow.assertValues("Bar");
+    subject.onNext("Baz");
+    subject.onNext("Qux");
+    fast.assertValues("Foo", "Bar", "Baz", "Qux");
+    slow.assertValues("Bar", "Baz");
+  }
+
+  @Test public void keepingLatestDeliversNewestOnRequest() {
+    PublishProcessor<String> subject = PublishProcessor.create();
+    Flowable<String> flowable = subject.compose(ReplayingShare.<String>createKeepingLatest());
+
+    TestSubscriber<String> fast = flowable.test();
+    TestSubscriber<String> slow = flowable.test(0);
+    subject.onNext("Foo");
+    subject.onNext("Bar");
+    fast.assertValues("Foo", "Bar");
+    slow.assertNoValues();
+
+    slow.request(5);
+    slow.assertValues("Bar");
+    subject.onNext("Baz");
+    slow.assertValues("Bar", "Baz");
+
+    subject.onComplete();
+    fast.assertComplete();
+    slow.assertComplete();
+  }
+
+  @Test public void keepingLatestReplaysCachedValue() {
+    PublishProcessor<String> subject = PublishProcessor.create();
+    Flowable<String> flowable = subject.compose(ReplayingShare.<String>createKeepingLatest());
+
+    TestSubscriber<String> subscriber1 = flowable.test();
+    subject.onNext("Foo");
+    TestSubscriber<String> subscriber2 = flowable.test(0);
+    subscriber2.assertNoValues();
+    subscriber2.request(1);
+    subscriber2.assertValues("Foo");
+    subscriber1.assertValues("Foo");
+  }
+
+  @Test public void bufferingDeliversInOrder() {
+    PublishProcessor<String> subject = PublishProcessor.create();
+    Flowable<String> flowable = subject.compose(ReplayingShare.<String>createBuffering(3,
+        new Action() {
+          @Override public void run() {
+            fail();
+          }
+        }));
+
+    TestSubscriber<String> fast = flowable.test();
+    subject.onNext("Foo");
+    TestSubscriber<String> slow = flowable.test(0);
+    subject.onNext("Bar");
+    subject.onNext("Baz");
+    slow.assertNoValues();
+
+    slow.request(2);
+    slow.assertValues("Foo", "Bar");
+    slow.request(2);
+    slow.assertValues("Foo", "Bar", "Baz");
+    fast.assertValues("Foo", "Bar", "Baz");
+  }
+
+  @Test public void bufferingOverflowOnlyFailsSlowSubscriber() {
+    PublishProcessor<String> subject = PublishProcessor.create();
+    final AtomicInteger overflows = new AtomicInteger();
+    Flowable<String> flowable =
+        subject.compose(ReplayingShare.<String>createBuffering(2, new Action() {
+          @Override public void run() {
+            overflows.incrementAndGet();
+          }
+        }));
+
+    TestSubscriber<String> fast = flowable.test();
+    TestSubscriber<String> slow = flowable.test(0);
+    subject.onNext("Foo");
+    subject.onNext("Bar");
+    slow.assertNoErrors();
+    subject.onNext("Baz");
+    slow.assertError(MissingBackpressureException.class);
+    assertEquals(1, overflows.get());
+
+    subject.onNext("Qux");
+    fast.assertValues("Foo", "Bar", "Baz", "Qux");
+    fast.assertNoErrors();
+  }
+
+  @Test public void overflowRejectsNonPositiveRequest() {
+    PublishProcessor<String> subject = PublishProcessor.create();
+    Flowable<String> flowable = subject.compose(ReplayingShare.<String>createDropping());
+
+    TestSubscriber<String> subscriber = flowable.test(0);
+    subscriber.request(0);
+    subscriber.assertError(IllegalArgumentException.class);
+    assertFalse(subject.hasSubscribers());
+  }
+
+  @SuppressWarnings("CheckReturnValue")
+  @Test public void weakReclaimsCollectedSubscribers() throws InterruptedException {
+    PublishProcessor<String> subject = PublishProcessor.create();
+    Flowable<String> flowable = subject.compose(ReplayingShare.<String>createWeak());
+
+    TestSubscriber<String> subscriber = flowable.test();
+    // Leak the subscription so that nothing but the stream refers to the subscriber.
+    flowable.subscribe();
+    subject.onNext("Foo");
+    assertEquals(2, ReplayingShare.state(flowable).subscriberCount());
+
+    for (int i = 0; i < 100 && ReplayingShare.state(flowable).subscriberCount() > 1; i++) {
+      System.gc();
+      Thread.sleep(10);
+      subject.onNext("Bar");
+    }
+    ReplayingShareState state = ReplayingShare.state(flowable);
+    assertEquals(1, state.reclaimedSubscribers());
+    assertEquals(1, state.subscriberCount());
+    assertTrue(subject.hasSubscribers());
+    subscriber.assertValueAt(0, "Foo");
+
+    subscriber.cancel();
+    assertFalse(subject.hasSubscribers());
+  }
+
+  @Test public void weakHoldsDownstreamUntilSubscribed() throws InterruptedException {
+    LastSeen<String> lastSeen = new LastSeen<>(null);
+    final AtomicBoolean subscribed = new AtomicBoolean();
+    // Like the wrapper Flowable.subscribe creates, nothing else refers to this subscriber.
+    WeakSubscriber<String> weak = new WeakSubscriber<>(new Subscriber<String>() {
+      @Override public void onSubscribe(Subscription s) {
+        subscribed.set(true);
+      }
+
+      @Override public void onNext(String value) {
+      }
+
+      @Override public void onError(Throwable t) {
+      }
+
+      @Override public void onComplete() {
+      }
+    }, lastSeen, new Reclaimer(lastSeen), false);
+
+    WeakReference<Object> collected = new WeakReference<>(new Object());
+    for (int i = 0; i < 100 && collected.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    weak.onSubscribe(new BooleanSubscription());
+    assertTrue(subscribed.get());
+  }
 }
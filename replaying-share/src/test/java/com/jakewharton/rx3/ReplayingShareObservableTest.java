@@ -15,19 +15,33 @@
  */
 package com.jakewharton.rx3;
 
+import com.jakewharton.rx3.ReplayingShare.Connection;
+import com.jakewharton.rx3.ReplayingShare.LastSeen;
 import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Observer;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
 import io.reactivex.rxjava3.disposables.Disposable;
 import io.reactivex.rxjava3.functions.Action;
 import io.reactivex.rxjava3.functions.Consumer;
+import io.reactivex.rxjava3.functions.Function;
 import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
 import io.reactivex.rxjava3.subjects.PublishSubject;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public final class ReplayingShareObservableTest {
@@ -342,4 +356,689 @@ public final class ReplayingShareObservableTest {
     replayed.subscribe(observer3);
     observer3.assertValues("default", "initB");
   }
+
+  @Test public void firstOrCachedReturnsCachedValueWhenConnected() {
+    PublishSubject<String> subject = PublishSubject.create();
+    final AtomicInteger count = new AtomicInteger();
+    Observable<String> observable = subject.compose(ReplayingShare.<String>instance());
+    Observable<String> counted = observable.doOnSubscribe(new Consumer<Disposable>() {
+      @Override public void accept(Disposable disposable) {
+        count.incrementAndGet();
+      }
+    });
+
+    TestObserver<String> observer = counted.test();
+    subject.onNext("Foo");
+    assertEquals(1, count.get());
+
+    ReplayingShare.firstOrCached(observable).test().assertResult("Foo");
+    assertEquals(1, count.get());
+    observer.dispose();
+  }
+
+  @Test public void connectedValueFollowsUpstreamConnection() {
+    LastSeen<String> lastSeen = new LastSeen<>(null);
+    Connection<String> connection = lastSeen.connect();
+    connection.onNext("Foo");
+    assertEquals("Foo", lastSeen.connectedValue());
+
+    // A subscriber which has not connected upstream yet does not make a stale value current.
+    connection.run();
+    lastSeen.subscriberAdded();
+    assertNull(lastSeen.connectedValue());
+
+    lastSeen.connect();
+    assertEquals("Foo", lastSeen.connectedValue());
+  }
+
+  @Test public void firstOrCachedSubscribesWhenEmpty() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable = subject.compose(ReplayingShare.<String>instance());
+
+    TestObserver<String> observer = ReplayingShare.firstOrCached(observable).test();
+    observer.assertNoValues();
+
+    subject.onNext("Foo");
+    observer.assertResult("Foo");
+    assertFalse(subject.hasObservers());
+  }
+
+  @Test public void firstOrCachedSubscribesWhenDisconnected() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable = subject.compose(ReplayingShare.<String>instance());
+
+    TestObserver<String> observer = observable.test();
+    subject.onNext("Foo");
+    observer.dispose();
+    assertFalse(subject.hasObservers());
+
+    ReplayingShare.firstOrCached(observable).test().assertResult("Foo");
+    assertFalse(subject.hasObservers());
+  }
+
+  @Test public void firstOrCachedInstanceIsReused() {
+    Observable<String> observable =
+        PublishSubject.<String>create().compose(ReplayingShare.<String>instance());
+    assertSame(ReplayingShare.firstOrCached(observable), ReplayingShare.firstOrCached(observable));
+  }
+
+  @SuppressWarnings("CheckReturnValue")
+  @Test public void firstOrCachedRejectsOtherStreams() {
+    try {
+      ReplayingShare.firstOrCached(Observable.just("Foo"));
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void shardedRefCountToUpstream() {
+    PublishSubject<String> subject = PublishSubject.create();
+
+    final AtomicInteger count = new AtomicInteger();
+    Observable<String> observable = subject //
+        .doOnSubscribe(new Consumer<Disposable>() {
+          @Override public void accept(Disposable disposable) {
+            count.incrementAndGet();
+          }
+        }) //
+        .doOnDispose(new Action() {
+          @Override public void run() {
+            count.decrementAndGet();
+          }
+        }) //
+        .compose(ReplayingShare.<String>createSharded(2));
+
+    List<TestObserver<String>> observers = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      observers.add(observable.test());
+      assertEquals(1, count.get());
+    }
+
+    subject.onNext("Foo");
+    for (TestObserver<String> observer : observers) {
+      observer.assertValues("Foo");
+    }
+
+    for (TestObserver<String> observer : observers) {
+      assertEquals(1, count.get());
+      observer.dispose();
+    }
+    assertEquals(0, count.get());
+  }
+
+  @Test public void shardedReplaysToNewSubscribers() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable = subject.compose(ReplayingShare.<String>createSharded(3));
+
+    TestObserver<String> observer1 = observable.test();
+    subject.onNext("Foo");
+    observer1.dispose();
+
+    for (int i = 0; i < 3; i++) {
+      TestObserver<String> observer = observable.test();
+      observer.assertValues("Foo");
+    }
+  }
+
+  @Test public void shardedDeliversOnScheduler() {
+    TestScheduler scheduler = new TestScheduler();
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable =
+        subject.compose(ReplayingShare.<String>createSharded(2, scheduler));
+
+    TestObserver<String> observer1 = observable.test();
+    TestObserver<String> observer2 = observable.test();
+
+    subject.onNext("Foo");
+    observer1.assertNoValues();
+    observer2.assertNoValues();
+
+    scheduler.triggerActions();
+    observer1.assertValues("Foo");
+    observer2.assertValues("Foo");
+
+    TestObserver<String> observer3 = observable.test();
+    observer3.assertValues("Foo");
+  }
+
+  @Test public void shardedReplayIsNotFollowedByOlderQueuedValues() {
+    TestScheduler scheduler = new TestScheduler();
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable =
+        subject.compose(ReplayingShare.<String>createSharded(2, scheduler));
+
+    TestObserver<String> observer1 = observable.test();
+    TestObserver<String> observer2 = observable.test();
+    subject.onNext("A");
+    subject.onNext("B");
+
+    TestObserver<String> observer3 = observable.test();
+    observer3.assertValues("B");
+
+    scheduler.triggerActions();
+    observer1.assertValues("A", "B");
+    observer2.assertValues("A", "B");
+    observer3.assertValues("B");
+
+    subject.onNext("C");
+    scheduler.triggerActions();
+    observer3.assertValues("B", "C");
+  }
+
+  @Test public void builderCombinesDefaultValueAndSharding() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable = subject.compose(ReplayingShare.<String>builder()
+        .defaultValue("default")
+        .sharded(2)
+        .build());
+
+    TestObserver<String> observer1 = observable.test();
+    TestObserver<String> observer2 = observable.test();
+    observer1.assertValues("default");
+    observer2.assertValues("default");
+
+    subject.onNext("Foo");
+    observer1.assertValues("default", "Foo");
+    observer2.assertValues("default", "Foo");
+    observable.test().assertValues("Foo");
+  }
+
+  @Test public void builderRejectsIncompatibleModes() {
+    try {
+      ReplayingShare.builder().weak().dropping().build();
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    try {
+      ReplayingShare.builder().prioritized().sharded(2).build();
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test public void primeConnectsUntilFirstValue() {
+    TestScheduler scheduler = new TestScheduler();
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable = subject.compose(ReplayingShare.<String>instance());
+
+    TestObserver<Void> prime =
+        ReplayingShare.prime(observable, 1, TimeUnit.SECONDS, scheduler).test();
+    assertTrue(subject.hasObservers());
+    prime.assertNotComplete();
+
+    subject.onNext("Foo");
+    prime.assertComplete();
+    assertFalse(subject.hasObservers());
+
+    observable.test().assertValues("Foo");
+  }
+
+  @Test public void primeDisconnectsAfterTimeout() {
+    TestScheduler scheduler = new TestScheduler();
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable = subject.compose(ReplayingShare.<String>instance());
+
+    TestObserver<Void> prime =
+        ReplayingShare.prime(observable, 1, TimeUnit.SECONDS, scheduler).test();
+    assertTrue(subject.hasObservers());
+
+    scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+    prime.assertComplete();
+    assertFalse(subject.hasObservers());
+  }
+
+  @Test public void primeDoesNotDisconnectOtherSubscribers() {
+    TestScheduler scheduler = new TestScheduler();
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable = subject.compose(ReplayingShare.<String>instance());
+
+    TestObserver<Void> prime =
+        ReplayingShare.prime(observable, 1, TimeUnit.SECONDS, scheduler).test();
+    TestObserver<String> observer = observable.test();
+
+    subject.onNext("Foo");
+    prime.assertComplete();
+    assertTrue(subject.hasObservers());
+    observer.assertValues("Foo");
+  }
+
+  @Test public void pinKeepsUpstreamConnected() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable = subject.compose(ReplayingShare.<String>instance());
+
+    Disposable pin = ReplayingShare.pin(observable);
+    assertTrue(subject.hasObservers());
+
+    TestObserver<String> observer1 = observable.test();
+    observer1.dispose();
+    assertTrue(subject.hasObservers());
+
+    subject.onNext("Foo");
+    TestObserver<String> observer2 = observable.test();
+    observer2.assertValues("Foo");
+    observer2.dispose();
+    assertTrue(subject.hasObservers());
+
+    pin.dispose();
+    assertFalse(subject.hasObservers());
+  }
+
+  @Test public void pinReleasedByError() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable = subject.compose(ReplayingShare.<String>instance());
+
+    Disposable pin = ReplayingShare.pin(observable);
+    subject.onError(new RuntimeException());
+    assertTrue(pin.isDisposed());
+  }
+
+  @Test public void combineComputesOncePerValue() {
+    PublishSubject<String> subjectA = PublishSubject.create();
+    PublishSubject<String> subjectB = PublishSubject.create();
+    final AtomicInteger count = new AtomicInteger();
+    Observable<String> combined = ReplayingShare.combine(Arrays.asList(subjectA, subjectB),
+        new Function<Object[], String>() {
+          @Override public String apply(Object[] values) {
+            count.incrementAndGet();
+            return values[0] + "+" + values[1];
+          }
+        });
+
+    TestObserver<String> observer1 = combined.test();
+    TestObserver<String> observer2 = combined.test();
+    assertTrue(subjectA.hasObservers());
+
+    subjectA.onNext("Foo");
+    subjectB.onNext("Bar");
+    observer1.assertValues("Foo+Bar");
+    observer2.assertValues("Foo+Bar");
+    assertEquals(1, count.get());
+
+    TestObserver<String> observer3 = combined.test();
+    observer3.assertValues("Foo+Bar");
+    assertEquals(1, count.get());
+  }
+
+  @Test public void combineReplaysSourcesAfterReconnect() {
+    PublishSubject<String> subjectA = PublishSubject.create();
+    PublishSubject<String> subjectB = PublishSubject.create();
+    Observable<String> combined = ReplayingShare.combine(Arrays.asList(subjectA, subjectB),
+        new Function<Object[], String>() {
+          @Override public String apply(Object[] values) {
+            return values[0] + "+" + values[1];
+          }
+        });
+
+    TestObserver<String> observer1 = combined.test();
+    subjectA.onNext("Foo");
+    subjectB.onNext("Bar");
+    observer1.dispose();
+    assertFalse(subjectA.hasObservers());
+
+    TestObserver<String> observer2 = combined.test();
+    observer2.assertValues("Foo+Bar");
+    subjectB.onNext("Baz");
+    observer2.assertValues("Foo+Bar", "Foo+Baz");
+  }
+
+  @Test public void combineEmitsRepeatedInstances() {
+    PublishSubject<Object> trigger = PublishSubject.create();
+    PublishSubject<Object> data = PublishSubject.create();
+    final AtomicInteger count = new AtomicInteger();
+    Observable<Integer> combined = ReplayingShare.combine(Arrays.asList(trigger, data),
+        new Function<Object[], Integer>() {
+          @Override public Integer apply(Object[] values) {
+            return count.incrementAndGet();
+          }
+        });
+
+    TestObserver<Integer> observer = combined.test();
+    Object tick = new Object();
+    data.onNext("Foo");
+    trigger.onNext(tick);
+    trigger.onNext(tick);
+    trigger.onNext(tick);
+    observer.assertValues(1, 2, 3);
+  }
+
+  @Test public void staleCombineConnectionDoesNotOverwriteMemo() throws Throwable {
+    CombineStore<String> store = new CombineStore<>(new Function<Object[], String>() {
+      @Override public String apply(Object[] values) {
+        return (String) values[0];
+      }
+    });
+    Object[] foo = { "Foo" };
+    Object[] bar = { "Bar" };
+    CombineMemo<String> stale = store.connect();
+    stale.apply(foo);
+    stale.run();
+
+    CombineMemo<String> current = store.connect();
+    stale.apply(bar);
+    stale.run();
+    current.apply(foo);
+    assertFalse(current.test("Foo"));
+
+    CombineMemo<String> next = store.connect();
+    next.apply(foo);
+    assertFalse(next.test("Foo"));
+  }
+
+  @Test public void combineUsesSharedSourcesAsIs() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> shared = subject.compose(ReplayingShare.<String>instance());
+    TestObserver<String> observer1 = shared.test();
+    subject.onNext("Foo");
+
+    Observable<String> combined = ReplayingShare.combine(Collections.singletonList(shared),
+        new Function<Object[], String>() {
+          @Override public String apply(Object[] values) {
+            return (String) values[0];
+          }
+        });
+    combined.test().assertValues("Foo");
+    observer1.assertValues("Foo");
+  }
+
+  @Test public void throttledDeliversLatestPerInterval() {
+    TestScheduler scheduler = new TestScheduler();
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable =
+        subject.compose(ReplayingShare.<String>createThrottled(1, TimeUnit.SECONDS, scheduler));
+
+    TestObserver<String> observer1 = observable.test();
+    TestObserver<String> observer2 = observable.test();
+    subject.onNext("Foo");
+    subject.onNext("Bar");
+    observer1.assertNoValues();
+    observer2.assertNoValues();
+
+    scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+    observer1.assertValues("Bar");
+    observer2.assertValues("Bar");
+
+    scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+    observer1.assertValues("Bar");
+  }
+
+  @Test public void throttledCacheHoldsFreshestValue() {
+    TestScheduler scheduler = new TestScheduler();
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable =
+        subject.compose(ReplayingShare.<String>createThrottled(1, TimeUnit.SECONDS, scheduler));
+
+    TestObserver<String> observer1 = observable.test();
+    subject.onNext("Foo");
+    scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+    observer1.assertValues("Foo");
+
+    subject.onNext("Bar");
+    TestObserver<String> observer2 = observable.test();
+    observer2.assertValues("Bar");
+    observer1.assertValues("Foo");
+  }
+
+  @Test public void throttledTickDoesNotRepeatReplayedValue() {
+    TestScheduler scheduler = new TestScheduler();
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable =
+        subject.compose(ReplayingShare.<String>createThrottled(1, TimeUnit.SECONDS, scheduler));
+
+    TestObserver<String> observer1 = observable.test();
+    subject.onNext("Foo");
+    TestObserver<String> observer2 = observable.test();
+    observer2.assertValues("Foo");
+
+    scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+    observer1.assertValues("Foo");
+    observer2.assertValues("Foo");
+
+    subject.onNext("Bar");
+    scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+    observer1.assertValues("Foo", "Bar");
+    observer2.assertValues("Foo", "Bar");
+  }
+
+  @Test public void throttledPrioritizedTickDoesNotRepeatReplayedValue() {
+    TestScheduler scheduler = new TestScheduler();
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable = subject.compose(ReplayingShare.<String>builder()
+        .throttled(1, TimeUnit.SECONDS, scheduler)
+        .prioritized()
+        .build());
+
+    TestObserver<String> observer1 = observable.test();
+    subject.onNext("Foo");
+    TestObserver<String> observer2 = ReplayingShare.withPriority(observable, 1).test();
+    observer2.assertValues("Foo");
+
+    scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+    observer1.assertValues("Foo");
+    observer2.assertValues("Foo");
+  }
+
+  @SuppressWarnings("CheckReturnValue")
+  @Test public void throttledUsesSingleTimer() {
+    final TestScheduler scheduler = new TestScheduler();
+    final AtomicInteger workers = new AtomicInteger();
+    Scheduler countingScheduler = new Scheduler() {
+      @Override public Worker createWorker() {
+        workers.incrementAndGet();
+        return scheduler.createWorker();
+      }
+    };
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable = subject.compose(
+        ReplayingShare.<String>createThrottled(1, TimeUnit.SECONDS, countingScheduler));
+
+    for (int i = 0; i < 10; i++) {
+      observable.test();
+    }
+    assertEquals(1, workers.get());
+  }
+
+  @Test public void stateReflectsLifecycle() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable = subject.compose(ReplayingShare.<String>instance());
+
+    ReplayingShareState state = ReplayingShare.state(observable);
+    assertFalse(state.isConnected());
+    assertEquals(0, state.subscriberCount());
+    assertFalse(state.hasValue());
+    assertEquals(-1, state.valueAgeNanos());
+    assertEquals(0, state.generation());
+
+    TestObserver<String> observer1 = observable.test();
+    TestObserver<String> observer2 = observable.test();
+    subject.onNext("Foo");
+    state = ReplayingShare.state(observable);
+    assertTrue(state.isConnected());
+    assertEquals(2, state.subscriberCount());
+    assertTrue(state.hasValue());
+    assertEquals(-1, state.valueAgeNanos());
+    assertEquals(1, state.generation());
+
+    observer1.dispose();
+    observer2.dispose();
+    state = ReplayingShare.state(observable);
+    assertFalse(state.isConnected());
+    assertEquals(0, state.subscriberCount());
+    assertTrue(state.hasValue());
+
+    TestObserver<String> observer3 = observable.test();
+    state = ReplayingShare.state(observable);
+    assertTrue(state.isConnected());
+    assertEquals(2, state.generation());
+
+    subject.onComplete();
+    observer3.assertComplete();
+    state = ReplayingShare.state(observable);
+    assertFalse(state.isConnected());
+    assertEquals(0, state.subscriberCount());
+    assertFalse(state.hasValue());
+  }
+
+  @Test public void stateReportsValueAgeWhenRecorded() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable =
+        subject.compose(ReplayingShare.<String>builder().recordValueAge().build());
+
+    TestObserver<String> observer = observable.test();
+    assertEquals(-1, ReplayingShare.state(observable).valueAgeNanos());
+
+    subject.onNext("Foo");
+    assertTrue(ReplayingShare.state(observable).valueAgeNanos() >= 0);
+
+    observer.dispose();
+    assertTrue(ReplayingShare.state(observable).valueAgeNanos() >= 0);
+  }
+
+  @Test public void staleConnectionCannotOverwriteCache() {
+    final List<Observer<? super String>> connections = new ArrayList<>();
+    Observable<String> upstream = new Observable<String>() {
+      @Override protected void subscribeActual(Observer<? super String> observer) {
+        observer.onSubscribe(new CompositeDisposable());
+        connections.add(observer);
+      }
+    };
+    Observable<String> observable = upstream.compose(ReplayingShare.<String>instance());
+
+    TestObserver<String> observer1 = observable.test();
+    connections.get(0).onNext("Foo");
+    observer1.dispose();
+
+    TestObserver<String> observer2 = observable.test();
+    connections.get(1).onNext("Bar");
+    // A misbehaving source keeps emitting on the connection which was already disposed.
+    connections.get(0).onNext("Stale");
+    connections.get(0).onComplete();
+    observer2.assertValues("Foo", "Bar");
+
+    TestObserver<String> observer3 = observable.test();
+    observer3.assertValues("Bar");
+  }
+
+  @Test public void weakDeliversToReferencedSubscribers() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable = subject.compose(ReplayingShare.<String>createWeak());
+
+    TestObserver<String> observer1 = observable.test();
+    subject.onNext("Foo");
+    TestObserver<String> observer2 = observable.test();
+    subject.onNext("Bar");
+    observer1.assertValues("Foo", "Bar");
+    observer2.assertValues("Foo", "Bar");
+
+    observer1.dispose();
+    observer2.dispose();
+    assertFalse(subject.hasObservers());
+    assertEquals(0, ReplayingShare.state(observable).reclaimedSubscribers());
+  }
+
+  @SuppressWarnings("CheckReturnValue")
+  @Test public void weakReclaimsCollectedSubscribers() throws InterruptedException {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable = subject.compose(ReplayingShare.<String>createWeak());
+
+    final List<String> values = new ArrayList<>();
+    // Leak the disposable so that nothing but the stream refers to the subscriber.
+    observable.subscribe(new Consumer<String>() {
+      @Override public void accept(String value) {
+        values.add(value);
+      }
+    });
+    subject.onNext("Foo");
+    assertEquals(Collections.singletonList("Foo"), values);
+    assertTrue(subject.hasObservers());
+
+    for (int i = 0; i < 100 && subject.hasObservers(); i++) {
+      System.gc();
+      Thread.sleep(10);
+      subject.onNext("Bar");
+    }
+    assertFalse(subject.hasObservers());
+    ReplayingShareState state = ReplayingShare.state(observable);
+    assertEquals(1, state.reclaimedSubscribers());
+    assertEquals(0, state.subscriberCount());
+    assertFalse(state.isConnected());
+  }
+
+  @Test public void prioritizedDeliversToHigherPriorityFirst() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable = subject.compose(ReplayingShare.<String>createPrioritized());
+
+    final List<String> deliveries = new ArrayList<>();
+    TestObserver<String> low = observable.doOnNext(new Consumer<String>() {
+      @Override public void accept(String value) {
+        deliveries.add("low " + value);
+      }
+    }).test();
+    TestObserver<String> high = ReplayingShare.withPriority(observable, 10)
+        .doOnNext(new Consumer<String>() {
+          @Override public void accept(String value) {
+            deliveries.add("high " + value);
+          }
+        })
+        .test();
+    TestObserver<String> middle = ReplayingShare.withPriority(observable, 5)
+        .doOnNext(new Consumer<String>() {
+          @Override public void accept(String value) {
+            deliveries.add("middle " + value);
+          }
+        })
+        .test();
+
+    subject.onNext("Foo");
+    assertEquals(Arrays.asList("high Foo", "middle Foo", "low Foo"), deliveries);
+    low.assertValues("Foo");
+    high.assertValues("Foo");
+    middle.assertValues("Foo");
+
+    TestObserver<String> late = ReplayingShare.withPriority(observable, 1).test();
+    late.assertValues("Foo");
+  }
+
+  @Test public void prioritizedRefCountToUpstream() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable = subject.compose(ReplayingShare.<String>createPrioritized());
+
+    TestObserver<String> observer1 = ReplayingShare.withPriority(observable, 1).test();
+    TestObserver<String> observer2 = observable.test();
+    assertTrue(subject.hasObservers());
+    subject.onNext("Foo");
+
+    observer1.dispose();
+    assertTrue(subject.hasObservers());
+    observer2.dispose();
+    assertFalse(subject.hasObservers());
+
+    TestObserver<String> observer3 = ReplayingShare.withPriority(observable, 1).test();
+    observer3.assertValues("Foo");
+    assertTrue(subject.hasObservers());
+    subject.onComplete();
+    observer3.assertComplete();
+    assertEquals(0, ReplayingShare.state(observable).subscriberCount());
+  }
+
+  @Test public void prioritizedBucketAfterTerminationReceivesTerminalEvent() {
+    PriorityObservable<String> parent = new PriorityObservable<>(Observable.<String>never());
+    PriorityConnection<String> completed = new PriorityConnection<>(parent);
+    completed.onComplete();
+    completed.bucket(1).test().assertComplete();
+
+    PriorityConnection<String> failed = new PriorityConnection<>(parent);
+    RuntimeException error = new RuntimeException();
+    failed.onError(error);
+    failed.bucket(1).test().assertError(error);
+  }
+
+  @Test public void withPriorityRejectsOtherStreams() {
+    Observable<String> observable =
+        Observable.<String>never().compose(ReplayingShare.<String>instance());
+    try {
+      ReplayingShare.withPriority(observable, 1);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
 }
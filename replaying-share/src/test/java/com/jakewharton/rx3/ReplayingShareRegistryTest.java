@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.processors.PublishProcessor;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class ReplayingShareRegistryTest {
+  private final ReplayingShareRegistry registry = new ReplayingShareRegistry();
+
+  @Test public void snapshotContainsRegisteredStreams() {
+    PublishSubject<String> subject = PublishSubject.create();
+    Observable<String> observable = subject.compose(ReplayingShare.<String>instance());
+    Flowable<String> flowable =
+        PublishProcessor.<String>create().compose(ReplayingShare.<String>instance());
+    registry.register("observable", observable);
+    registry.register("flowable", flowable);
+
+    TestObserver<String> observer = observable.test();
+    subject.onNext("Foo");
+
+    Map<String, ReplayingShareState> snapshot = registry.snapshot();
+    assertEquals(2, snapshot.size());
+    ReplayingShareState observableState = snapshot.get("observable");
+    assertNotNull(observableState);
+    assertTrue(observableState.isConnected());
+    assertEquals(1, observableState.subscriberCount());
+    assertTrue(observableState.hasValue());
+    ReplayingShareState flowableState = snapshot.get("flowable");
+    assertNotNull(flowableState);
+    assertFalse(flowableState.isConnected());
+    assertFalse(flowableState.hasValue());
+
+    observer.dispose();
+  }
+
+  @Test public void unregisterRemovesStream() {
+    Observable<String> observable =
+        PublishSubject.<String>create().compose(ReplayingShare.<String>instance());
+    registry.register("observable", observable);
+    registry.unregister("observable");
+    assertTrue(registry.snapshot().isEmpty());
+  }
+
+  @Test public void collectedStreamsAreRemoved() throws InterruptedException {
+    registry.register("observable",
+        PublishSubject.<String>create().compose(ReplayingShare.<String>instance()));
+
+    for (int i = 0; i < 50 && !registry.snapshot().isEmpty(); i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertTrue(registry.snapshot().isEmpty());
+  }
+
+  @Test public void otherStreamsRejected() {
+    try {
+      registry.register("observable", Observable.just("Foo"));
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
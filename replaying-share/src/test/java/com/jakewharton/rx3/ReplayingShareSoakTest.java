@@ -0,0 +1,374 @@
+/*
+ * Copyright 2016 Jake Wharton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jakewharton.rx3;
+
+import com.jakewharton.rx3.DeltaReplayingShare.Differ;
+import com.jakewharton.rx3.ReplayingShare.LastSeenFlowable;
+import com.jakewharton.rx3.ReplayingShare.LastSeenObservable;
+import io.reactivex.rxjava3.annotations.Nullable;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.FlowableTransformer;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.ObservableTransformer;
+import io.reactivex.rxjava3.core.Observer;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.functions.Action;
+import io.reactivex.rxjava3.functions.Function;
+import io.reactivex.rxjava3.processors.PublishProcessor;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Sustained emit and subscribe/dispose workloads which fail when allocation or retained heap
+ * exceed their budgets. Each test runs once for every {@link Mode}. Excluded from the default
+ * build; run with {@code mvn test -Psoak} and optionally {@code -Dsoak.seconds=N} to change the
+ * duration of each test.
+ */
+@RunWith(Parameterized.class)
+public final class ReplayingShareSoakTest {
+  private static final long RETAINED_BYTES_BUDGET = 8 * 1024 * 1024;
+  /**
+   * One-off allocation by the JIT or the JDK which may land in any round. It is far less than one
+   * byte per operation so that any allocation which recurs per operation exceeds a budget.
+   */
+  private static final long ROUND_SLACK_BYTES = 16 * 1024;
+  /** The test scheduler reschedules the sampling timer of a throttled mode on every tick. */
+  private static final long TICK_BYTES = 80;
+
+  private static final int SUBSCRIBERS = 16;
+  private static final int EMISSIONS_PER_ROUND = 200_000;
+  private static final int EMISSIONS_PER_TICK = 1_000;
+  private static final int CHURNS_PER_ROUND = 20_000;
+  private static final Object[] VALUES = new Object[1024];
+
+  static {
+    for (int i = 0; i < VALUES.length; i++) {
+      VALUES[i] = new Object();
+    }
+  }
+
+  @Parameters(name = "{0}")
+  public static List<Object[]> modes() {
+    Action onOverflow = new Action() {
+      @Override public void run() {
+        throw new AssertionError();
+      }
+    };
+    Differ<Object, Object> differ = new Differ<Object, Object>() {
+      @Override public Object diff(Object previous, Object next) {
+        return next;
+      }
+    };
+    Function<Object, Object> mapper = new Function<Object, Object>() {
+      @Override public Object apply(Object value) {
+        return value;
+      }
+    };
+    TestScheduler scheduler = new TestScheduler();
+    // Budgets are the exact sizes measured on a 64-bit JDK 8 with compressed oops: bytes per
+    // emission, then per Observable and per Flowable subscribe/dispose.
+    return Arrays.asList(new Object[][] {
+        // Caching a value is a single field write. Subscribing allocates the per-subscriber
+        // observer and a copy of the multicast's subscriber array.
+        { new Mode("instance", ReplayingShare.instance(), null, 0, 288, 528) },
+        // Each Flowable subscriber allocates a queue for the values accepted without demand.
+        { new Mode("dropping", ReplayingShare.createDropping(), null, 0, 288, 1216) },
+        // Each Flowable subscriber allocates a bounded queue.
+        { new Mode("buffering", ReplayingShare.createBuffering(2, onOverflow), null, 0, 288,
+            680) },
+        // Each subscriber allocates a WeakReference to its downstream.
+        { new Mode("weak", ReplayingShare.createWeak(), null, 0, 328, 568) },
+        // Subscribing only copies the subscriber array of one shard.
+        { new Mode("sharded", ReplayingShare.createSharded(4), null, 0, 192, 432) },
+        { new Mode("throttled",
+            ReplayingShare.createThrottled(1, TimeUnit.MILLISECONDS, scheduler), scheduler, 0,
+            288, 528) },
+        // Subscribing copies the subscriber array of one priority bucket. Flowables are shared
+        // normally.
+        { new Mode("prioritized", ReplayingShare.createPrioritized(), null, 0, 288, 528) },
+        // Each upstream value allocates one Delta which is shared by every subscriber.
+        { new Mode("delta", DeltaReplayingShare.create(differ), null, 64, 312, 672) },
+        // Each distinct upstream value replaces the MemoStore entry.
+        { new Mode("mapping", MappingReplayingShare.create(mapper), null, 32, 288, 528) },
+    });
+  }
+
+  private final Mode mode;
+  private final long durationNanos =
+      TimeUnit.SECONDS.toNanos(Long.parseLong(System.getProperty("soak.seconds", "60")));
+  private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+  private com.sun.management.ThreadMXBean threads;
+
+  public ReplayingShareSoakTest(Mode mode) {
+    this.mode = mode;
+  }
+
+  @Before public void setUp() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+    this.threads = (com.sun.management.ThreadMXBean) threads;
+    assumeTrue(this.threads.isThreadAllocatedMemorySupported());
+    this.threads.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  @Test public void observable() {
+    PublishSubject<Object> subject = PublishSubject.create();
+    Observable<Object> observable = subject.compose(mode.observable);
+    CountingObserver[] observers = new CountingObserver[SUBSCRIBERS];
+    for (int i = 0; i < SUBSCRIBERS; i++) {
+      observers[i] = observable.subscribeWith(new CountingObserver());
+    }
+
+    // Warm up so that allocation from class loading and compilation is not measured.
+    emit(subject);
+    churn(observable);
+    long baselineHeap = retainedHeap();
+
+    long deadline = System.nanoTime() + durationNanos;
+    while (System.nanoTime() < deadline) {
+      long allocated = allocatedBytes();
+      emit(subject);
+      assertBudget("bytes per round of " + EMISSIONS_PER_ROUND + " Observable emissions",
+          emitBudget(), allocatedBytes() - allocated);
+
+      allocated = allocatedBytes();
+      churn(observable);
+      assertBudget("bytes per round of " + CHURNS_PER_ROUND + " Observable subscribe/dispose",
+          churnBudget(mode.observableChurnBytes), allocatedBytes() - allocated);
+    }
+
+    assertBudget("retained heap bytes after Observable soak", RETAINED_BYTES_BUDGET,
+        retainedHeap() - baselineHeap);
+    if (observable instanceof LastSeenObservable) { // Delta streams do not expose their state.
+      assertEquals(SUBSCRIBERS, ReplayingShare.state(observable).subscriberCount());
+    }
+    for (CountingObserver observer : observers) {
+      assertTrue(observer.count > 0);
+      observer.dispose();
+    }
+    assertFalse(subject.hasObservers());
+  }
+
+  @Test public void flowable() {
+    PublishProcessor<Object> processor = PublishProcessor.create();
+    Flowable<Object> flowable = processor.compose(mode.flowable);
+    CountingSubscriber[] subscribers = new CountingSubscriber[SUBSCRIBERS];
+    for (int i = 0; i < SUBSCRIBERS; i++) {
+      subscribers[i] = flowable.subscribeWith(new CountingSubscriber());
+    }
+
+    // Warm up so that allocation from class loading and compilation is not measured.
+    emit(processor);
+    churn(flowable);
+    long baselineHeap = retainedHeap();
+
+    long deadline = System.nanoTime() + durationNanos;
+    while (System.nanoTime() < deadline) {
+      long allocated = allocatedBytes();
+      emit(processor);
+      assertBudget("bytes per round of " + EMISSIONS_PER_ROUND + " Flowable emissions",
+          emitBudget(), allocatedBytes() - allocated);
+
+      allocated = allocatedBytes();
+      churn(flowable);
+      assertBudget("bytes per round of " + CHURNS_PER_ROUND + " Flowable subscribe/cancel",
+          churnBudget(mode.flowableChurnBytes), allocatedBytes() - allocated);
+    }
+
+    assertBudget("retained heap bytes after Flowable soak", RETAINED_BYTES_BUDGET,
+        retainedHeap() - baselineHeap);
+    if (flowable instanceof LastSeenFlowable) { // Delta streams do not expose their state.
+      assertEquals(SUBSCRIBERS, ReplayingShare.state(flowable).subscriberCount());
+    }
+    for (CountingSubscriber subscriber : subscribers) {
+      assertTrue(subscriber.count > 0);
+      subscriber.cancel();
+    }
+    assertFalse(processor.hasSubscribers());
+  }
+
+  private void emit(PublishSubject<Object> subject) {
+    for (int i = 0; i < EMISSIONS_PER_ROUND; i++) {
+      subject.onNext(VALUES[i & (VALUES.length - 1)]);
+      tick(i);
+    }
+  }
+
+  private void emit(PublishProcessor<Object> processor) {
+    for (int i = 0; i < EMISSIONS_PER_ROUND; i++) {
+      processor.onNext(VALUES[i & (VALUES.length - 1)]);
+      tick(i);
+    }
+  }
+
+  /** Lets a throttled mode deliver the latest value every {@link #EMISSIONS_PER_TICK}. */
+  private void tick(int emission) {
+    TestScheduler scheduler = mode.scheduler;
+    if (scheduler != null && emission % EMISSIONS_PER_TICK == EMISSIONS_PER_TICK - 1) {
+      scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private static void churn(Observable<Object> observable) {
+    for (int i = 0; i < CHURNS_PER_ROUND; i++) {
+      observable.subscribeWith(new CountingObserver()).dispose();
+    }
+  }
+
+  private static void churn(Flowable<Object> flowable) {
+    for (int i = 0; i < CHURNS_PER_ROUND; i++) {
+      flowable.subscribeWith(new CountingSubscriber()).cancel();
+    }
+  }
+
+  /** The total bytes a round of emissions may allocate. */
+  private long emitBudget() {
+    long budget = mode.emitBytes * EMISSIONS_PER_ROUND + ROUND_SLACK_BYTES;
+    if (mode.scheduler != null) {
+      budget += TICK_BYTES * (EMISSIONS_PER_ROUND / EMISSIONS_PER_TICK);
+    }
+    return budget;
+  }
+
+  /** The total bytes a round of subscribing and disposing may allocate. */
+  private static long churnBudget(long bytesPerChurn) {
+    return bytesPerChurn * CHURNS_PER_ROUND + ROUND_SLACK_BYTES;
+  }
+
+  private long allocatedBytes() {
+    return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private long retainedHeap() {
+    // A single GC request is only a hint. Take the lowest of a few samples.
+    long min = Long.MAX_VALUE;
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      min = Math.min(min, memory.getHeapMemoryUsage().getUsed());
+    }
+    return min;
+  }
+
+  private static void assertBudget(String name, long budget, long actual) {
+    assertTrue(name + ": " + actual + " exceeds budget of " + budget, actual <= budget);
+  }
+
+  static final class Mode {
+    final String name;
+    final ObservableTransformer<Object, ?> observable;
+    final FlowableTransformer<Object, ?> flowable;
+    /** Advanced while emitting for modes which deliver on a timer. */
+    final @Nullable TestScheduler scheduler;
+    /** The bytes each emission allocates. */
+    final long emitBytes;
+    /** The bytes each Observable subscribe/dispose allocates. */
+    final long observableChurnBytes;
+    /** The bytes each Flowable subscribe/cancel allocates. */
+    final long flowableChurnBytes;
+
+    <X extends ObservableTransformer<Object, ?> & FlowableTransformer<Object, ?>> Mode(String name,
+        X transformer, @Nullable TestScheduler scheduler, long emitBytes,
+        long observableChurnBytes, long flowableChurnBytes) {
+      this.name = name;
+      this.observable = transformer;
+      this.flowable = transformer;
+      this.scheduler = scheduler;
+      this.emitBytes = emitBytes;
+      this.observableChurnBytes = observableChurnBytes;
+      this.flowableChurnBytes = flowableChurnBytes;
+    }
+
+    @Override public String toString() {
+      return name;
+    }
+  }
+
+  static final class CountingObserver implements Observer<Object>, Disposable {
+    private @Nullable Disposable upstream;
+    long count;
+
+    @Override public void onSubscribe(Disposable d) {
+      upstream = d;
+    }
+
+    @Override public void onNext(Object value) {
+      count++;
+    }
+
+    @Override public void onError(Throwable e) {
+      throw new AssertionError(e);
+    }
+
+    @Override public void onComplete() {
+    }
+
+    @Override public void dispose() {
+      Disposable upstream = this.upstream;
+      assert upstream != null;
+      upstream.dispose();
+    }
+
+    @Override public boolean isDisposed() {
+      Disposable upstream = this.upstream;
+      assert upstream != null;
+      return upstream.isDisposed();
+    }
+  }
+
+  static final class CountingSubscriber implements Subscriber<Object> {
+    private @Nullable Subscription upstream;
+    long count;
+
+    @Override public void onSubscribe(Subscription s) {
+      upstream = s;
+      s.request(Long.MAX_VALUE);
+    }
+
+    @Override public void onNext(Object value) {
+      count++;
+    }
+
+    @Override public void onError(Throwable t) {
+      throw new AssertionError(t);
+    }
+
+    @Override public void onComplete() {
+    }
+
+    void cancel() {
+      Subscription upstream = this.upstream;
+      assert upstream != null;
+      upstream.cancel();
+    }
+  }
+}